@@ -0,0 +1,695 @@
+package boundedbuffer;
+
+import java.lang.reflect.Array;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/*
+* The synchronization shared by the bounded buffer monitors.
+*
+* A monitor which holds a shared fixed-size buffer of type *A*,
+* which is some array type (int[], long[], Object[], ...).
+* producers must wait if the buffer is full and
+* consumers must wait if the buffer is empty.
+*
+* Items are only ever moved with System.arraycopy, so primitive
+* buffers never box.
+*
+* putAsync/takeAsync wait without tying up a thread: whichever
+* thread's put/take makes room for (or supplies) an async request
+* carries it out and completes its future after releasing the lock.
+* With TARGETED wakeups they wait in line with the blocking callers,
+* with SIGNAL_ALL they are filed by size the same way while blocking
+* callers re-check on every signal.
+*/
+public abstract class AbstractBoundedBufferMonitor<A> {
+    /*
+     * How waiting threads get woken up.
+     *
+     * SIGNAL_ALL wakes every waiting consumer on each put
+     * (and every waiting producer on each take) to re-check.
+     * TARGETED files waiters by the size of their request and
+     * only wakes the ones the new items/space can satisfy.
+     */
+    public enum Wakeups {
+        SIGNAL_ALL,
+        TARGETED
+    }
+
+    /*
+     * Who gets in when there is room for several waiters.
+     *
+     * BARGING lets any thread whose request fits go straight in,
+     * so a big take() can wait forever behind a stream of small
+     * ones. FIFO admits requests in arrival order: once a request
+     * is at the head of the line, new items (or space) are reserved
+     * for it and everybody behind it queues. FIFO needs TARGETED
+     * wakeups.
+     */
+    public enum Admission {
+        BARGING,
+        FIFO
+    }
+
+    private final A shared_buffer;
+    // front back allow us to "wrap around" the buffer
+    // buf_size is capacity, count is current number of objects on the
+    // buffer.
+    private int front, back, buf_size, count;
+    private final Wakeups wakeups;
+    private final Admission admission;
+
+    private ReentrantLock lock = new ReentrantLock();
+    // used with SIGNAL_ALL
+    private Condition space_on_buffer = lock.newCondition(),
+        items_on_buffer = lock.newCondition();
+    // used with TARGETED, and for async requests with SIGNAL_ALL
+    private final WaiterRegistry waiting_for_space, waiting_for_items;
+    private final IntSupplier space_available = () -> buf_size - count,
+        items_available = () -> count;
+    // Async requests that have been signalled but not yet carried out
+    private final ArrayDeque<AsyncWaiter> ready_async = new ArrayDeque<>();
+    // How long puts/takes of each size waited to get in,
+    // filled in lazily and guarded by lock
+    private final WaitTimeHistogram[] put_waits, take_waits;
+
+    /*
+    * Use the (empty) array *shared_buffer* as the buffer, wake waiters
+    * as described by *wakeups* and admit them as described by *admission*
+    */
+    protected AbstractBoundedBufferMonitor(A shared_buffer, Wakeups wakeups, Admission admission) {
+        if(admission == Admission.FIFO && wakeups != Wakeups.TARGETED) {
+            throw new IllegalArgumentException("FIFO admission needs TARGETED wakeups");
+        }
+        this.shared_buffer = shared_buffer;
+        buf_size = Array.getLength(shared_buffer);
+        this.wakeups = wakeups;
+        this.admission = admission;
+        waiting_for_space = new WaiterRegistry(lock, admission == Admission.FIFO, this::flushAsync);
+        waiting_for_items = new WaiterRegistry(lock, admission == Admission.FIFO, this::flushAsync);
+        put_waits = new WaitTimeHistogram[buf_size + 1];
+        take_waits = new WaitTimeHistogram[buf_size + 1];
+        count = front = back = 0;
+    }
+
+    public Admission getAdmission() {
+        return admission;
+    }
+
+    public int capacity() {
+        return buf_size;
+    }
+
+    /*
+     * How many items are on the buffer right now
+     */
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * How many more items fit on the buffer right now
+     */
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return buf_size - count;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+    * Add src[off], ..., src[off+len-1] to the buffer. Requests of
+    * more than capacity() items, here and in take/putAsync/takeAsync,
+    * throw IllegalArgumentException.
+    */
+    public void put(A src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, Array.getLength(src));
+        checkBatchSize(len);
+        long arrived = System.nanoTime();
+        List<AsyncWaiter> completed;
+        lock.lock();
+        try {
+            // wait for space to drop in items
+            // (count is available space, so need count+0, count+1,...
+            //  count+len-1, i.e. count+len -1<buf_size
+            //  i.e. count+len < buf_size+1
+            if(len > freeSpace()) {
+                awaitSpace(len);
+            }
+            recordWait(put_waits, len, arrived);
+            try {
+                copyIn(src, off, len);
+            }
+            catch(RuntimeException e) {
+                // Nothing went on the buffer, but we may have been
+                // woken in somebody else's place
+                spaceFreed();
+                flushAsync();
+                throw e;
+            }
+            // now threads waiting for items might want to be notified
+            itemsAdded();
+            completed = runReadyAsync();
+        }
+        finally {
+            lock.unlock();
+        }
+        complete(completed);
+    }
+
+    /*
+     * Take len things off the buffer into dst[off], ..., dst[off+len-1]
+     */
+    public void take(A dst, int off, int len) {
+        Objects.checkFromIndexSize(off, len, Array.getLength(dst));
+        checkBatchSize(len);
+        long arrived = System.nanoTime();
+        List<AsyncWaiter> completed;
+        lock.lock();
+        try {
+            // Wait until there are at least *len* items
+            if(freeItems() < len) {
+                awaitItems(len);
+            }
+            recordWait(take_waits, len, arrived);
+            copyOut(dst, off, len);
+            // Now wake any threads waiting for space
+            spaceFreed();
+            completed = runReadyAsync();
+        }
+        finally {
+            lock.unlock();
+        }
+        complete(completed);
+    }
+
+    /*
+     * Take up to max_len things off the buffer into dst[off], ...
+     * without waiting for more to arrive
+     */
+    public int drainTo(A dst, int off, int max_len) {
+        Objects.checkFromIndexSize(off, max_len, Array.getLength(dst));
+        int num;
+        List<AsyncWaiter> completed = null;
+        lock.lock();
+        try {
+            num = Math.min(max_len, freeItems());
+            if(num > 0) {
+                copyOut(dst, off, num);
+                spaceFreed();
+                completed = runReadyAsync();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+        complete(completed);
+        return num;
+    }
+
+    /*
+     * Add all of *items* to the buffer without blocking. The returned
+     * future completes once they are on the buffer, *items* must not
+     * be changed until then. Cancelling (or otherwise completing) the
+     * returned future before then withdraws the put; once the put has
+     * been carried out cancel() returns false and the future completes
+     * as usual.
+     */
+    public CompletableFuture<Void> putAsync(A items) {
+        return putAsync(items, 0, Array.getLength(items));
+    }
+
+    /*
+     * Add src[off], ..., src[off+len-1] to the buffer without blocking,
+     * as putAsync(items)
+     */
+    public CompletableFuture<Void> putAsync(A src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, Array.getLength(src));
+        checkBatchSize(len);
+        AsyncWaiter w = new AsyncWaiter(src, off, true, len);
+        boolean now = false;
+        List<AsyncWaiter> completed;
+        lock.lock();
+        try {
+            if(w.size <= freeSpace()) {
+                recordWait(put_waits, w.size, w.arrived);
+                w.carried_out = true;
+                now = true;
+                try {
+                    copyIn(src, off, len);
+                    itemsAdded();
+                }
+                catch(RuntimeException e) {
+                    w.failure = e;
+                }
+            }
+            else {
+                waiting_for_space.add(w, false);
+            }
+            completed = runReadyAsync();
+        }
+        finally {
+            lock.unlock();
+        }
+        if(now) {
+            if(w.failure != null) {
+                w.put_done.fail(w.failure);
+            }
+            else {
+                w.put_done.deliver(null);
+            }
+        }
+        complete(completed);
+        return w.put_done;
+    }
+
+    /*
+     * Take num things off the buffer without blocking. The returned
+     * future completes with them once they are available. Cancelling
+     * (or otherwise completing) the returned future before then
+     * withdraws the take, leaving the items on the buffer; once the
+     * take has been carried out cancel() returns false and the future
+     * completes with the items as usual, so none are lost.
+     */
+    public CompletableFuture<A> takeAsync(int num) {
+        checkBatchSize(num);
+        AsyncWaiter w = new AsyncWaiter(newArray(num), 0, false, num);
+        boolean now = false;
+        List<AsyncWaiter> completed;
+        lock.lock();
+        try {
+            if(freeItems() >= num) {
+                recordWait(take_waits, num, w.arrived);
+                copyOut(w.items, 0, num);
+                spaceFreed();
+                w.carried_out = true;
+                now = true;
+            }
+            else {
+                waiting_for_items.add(w, false);
+            }
+            completed = runReadyAsync();
+        }
+        finally {
+            lock.unlock();
+        }
+        if(now) {
+            w.taken.deliver(w.items);
+        }
+        complete(completed);
+        return w.taken;
+    }
+
+    /*
+     * Take a waiting async request out of line, returning false
+     * if it has already been carried out
+     */
+    private boolean withdraw(AsyncWaiter w) {
+        List<AsyncWaiter> completed;
+        lock.lock();
+        try {
+            if(w.carried_out) {
+                return false;
+            }
+            if(w.withdrawn) {
+                return true;
+            }
+            w.withdrawn = true;
+            // Async requests are carried out before whoever signalled
+            // them lets go of the lock, so w is still in line
+            WaiterRegistry registry = w.putting ? waiting_for_space : waiting_for_items;
+            if(registry.remove(w)) {
+                // With FIFO admission w may have been holding
+                // up the requests behind it
+                if(w.putting) {
+                    spaceFreed();
+                }
+                else {
+                    itemsAdded();
+                }
+            }
+            completed = runReadyAsync();
+        }
+        finally {
+            lock.unlock();
+        }
+        complete(completed);
+        return true;
+    }
+
+    /*
+     * Put *len* items from src[off], ... onto the buffer, caller
+     * must hold the lock and know they fit. If itemsPut() throws,
+     * nothing is put.
+     */
+    private void copyIn(A src, int off, int len) {
+        itemsPut(src, off, len);
+        // Copy in with at most two arraycopys, one up to the end
+        // of the array and one for anything that wraps around
+        int first = Math.min(len, buf_size - back);
+        System.arraycopy(src, off, shared_buffer, back, first);
+        System.arraycopy(src, off + first, shared_buffer, 0, len - first);
+        back = (back + len) % buf_size;
+        count += len;
+    }
+
+    /*
+     * Grab *len* items off of the array, caller must hold the lock
+     * and know there are at least *len* items
+     */
+    private void copyOut(A dst, int off, int len) {
+        int first = Math.min(len, buf_size - front);
+        System.arraycopy(shared_buffer, front, dst, off, first);
+        System.arraycopy(shared_buffer, 0, dst, off + first, len - first);
+        forget(shared_buffer, front, first);
+        forget(shared_buffer, 0, len - first);
+        front = (front + len) % buf_size;
+        count -= len;
+        itemsTaken(len);
+    }
+
+    /*
+     * Carry out (holding the lock) the async requests signalled so far,
+     * and any signalled as a result, returning those whose futures
+     * must be completed once the lock is released
+     */
+    private List<AsyncWaiter> runReadyAsync() {
+        if(ready_async.isEmpty()) {
+            return null;
+        }
+        List<AsyncWaiter> completed = new ArrayList<>();
+        while(!ready_async.isEmpty()) {
+            AsyncWaiter w = ready_async.pollFirst();
+            WaiterRegistry registry = w.putting ? waiting_for_space : waiting_for_items;
+            registry.claimed(w.size);
+            int available = w.putting ? buf_size - count : count;
+            if(w.withdrawn) {
+                // Pass its share on
+                registry.wake(available);
+                continue;
+            }
+            if(available < w.size) {
+                // Someone barged in, back in line
+                registry.add(w, true);
+                registry.wake(available);
+                continue;
+            }
+            if(w.putting) {
+                recordWait(put_waits, w.size, w.arrived);
+                try {
+                    copyIn(w.items, w.off, w.size);
+                    itemsAdded();
+                }
+                catch(RuntimeException e) {
+                    // Nothing went on the buffer, fail the put
+                    // and pass its share on
+                    w.failure = e;
+                    registry.wake(available);
+                }
+            }
+            else {
+                recordWait(take_waits, w.size, w.arrived);
+                copyOut(w.items, 0, w.size);
+                spaceFreed();
+            }
+            w.carried_out = true;
+            completed.add(w);
+        }
+        return completed;
+    }
+
+    /*
+     * Complete the futures of async requests carried out while we
+     * held the lock. Called without the lock, so callbacks chained
+     * on the futures can't block the monitor.
+     */
+    private void complete(List<AsyncWaiter> completed) {
+        if(completed == null) {
+            return;
+        }
+        for(AsyncWaiter w : completed) {
+            if(w.putting && w.failure != null) {
+                w.put_done.fail(w.failure);
+            }
+            else if(w.putting) {
+                w.put_done.deliver(null);
+            }
+            else {
+                w.taken.deliver(w.items);
+            }
+        }
+    }
+
+    /*
+     * Carry out any signalled async requests while a blocked thread
+     * holds the lock in between waits. Their futures are completed
+     * with the lock briefly released; the thread's own waiter stays
+     * registered, so it can't miss its signal meanwhile.
+     */
+    private void flushAsync() {
+        List<AsyncWaiter> completed = runReadyAsync();
+        if(completed == null) {
+            return;
+        }
+        lock.unlock();
+        try {
+            complete(completed);
+        }
+        finally {
+            lock.lock();
+        }
+    }
+
+    /*
+     * A request for more than buf_size items could never be met,
+     * and with FIFO admission would hold up everybody behind it
+     */
+    private void checkBatchSize(int n) {
+        if(n < 0 || n > buf_size) {
+            throw new IllegalArgumentException("batch size must be in range [0," + buf_size + "]");
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private A newArray(int length) {
+        return (A) Array.newInstance(shared_buffer.getClass().getComponentType(), length);
+    }
+
+    /*
+     * Called (holding the lock) on each run of *len* slots starting
+     * at *from* whose items were just taken. Buffers of references
+     * override this to drop them so they can be collected.
+     */
+    protected void forget(A shared_buffer, int from, int len) { }
+
+    /*
+     * Called (holding the lock) just before src[off], ..., src[off+len-1]
+     * go onto the buffer, in the order items go on. If this throws,
+     * they don't go on and the put fails with the exception (an async
+     * put's future completes with it).
+     */
+    protected void itemsPut(A src, int off, int len) { }
+
+    /*
+     * Called (holding the lock) after *len* items came off the
+     * buffer, in the order items come off
+     */
+    protected void itemsTaken(int len) { }
+
+    /*
+     * The *percentile*% wait time in nanoseconds of puts of *size*
+     * items so far, or -1 if there have been none
+     */
+    public long putWaitPercentile(int size, double percentile) {
+        return waitPercentile(put_waits, size, percentile);
+    }
+
+    /*
+     * The *percentile*% wait time in nanoseconds of takes of *size*
+     * items so far, or -1 if there have been none
+     */
+    public long takeWaitPercentile(int size, double percentile) {
+        return waitPercentile(take_waits, size, percentile);
+    }
+
+    private long waitPercentile(WaitTimeHistogram[] waits, int size, double percentile) {
+        lock.lock();
+        try {
+            if(size < 0 || size >= waits.length || waits[size] == null) {
+                return -1;
+            }
+            return waits[size].percentile(percentile);
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordWait(WaitTimeHistogram[] waits, int size, long arrived) {
+        if(waits[size] == null) {
+            waits[size] = new WaitTimeHistogram();
+        }
+        waits[size].record(System.nanoTime() - arrived);
+    }
+
+    /*
+     * Space a newly arrived producer may use without waiting
+     */
+    private int freeSpace() {
+        if(wakeups == Wakeups.TARGETED) {
+            return waiting_for_space.unreserved(buf_size - count);
+        }
+        return buf_size - count;
+    }
+
+    /*
+     * Items a newly arrived consumer may take without waiting
+     */
+    private int freeItems() {
+        if(wakeups == Wakeups.TARGETED) {
+            return waiting_for_items.unreserved(count);
+        }
+        return count;
+    }
+
+    /*
+     * Wait (holding the lock) until *len* more items fit
+     */
+    private void awaitSpace(int len) {
+        if(wakeups == Wakeups.TARGETED) {
+            waiting_for_space.awaitAtLeast(len, space_available);
+            return;
+        }
+        while(len + count > buf_size) {
+            try{
+                space_on_buffer.await();
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+
+    /*
+     * Wait (holding the lock) until there are *len* items
+     */
+    private void awaitItems(int len) {
+        if(wakeups == Wakeups.TARGETED) {
+            waiting_for_items.awaitAtLeast(len, items_available);
+            return;
+        }
+        while(count < len) {
+            try{
+                items_on_buffer.await();
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+
+    private void itemsAdded() {
+        if(wakeups != Wakeups.TARGETED) {
+            items_on_buffer.signalAll();
+        }
+        // With SIGNAL_ALL this only holds async requests
+        waiting_for_items.wake(count);
+    }
+
+    private void spaceFreed() {
+        if(wakeups != Wakeups.TARGETED) {
+            space_on_buffer.signalAll();
+        }
+        // With SIGNAL_ALL this only holds async requests
+        waiting_for_space.wake(buf_size - count);
+    }
+
+    /*
+     * A putAsync/takeAsync waiting in a WaiterRegistry. Being signalled
+     * just queues it up to be carried out by whoever signalled it.
+     */
+    private class AsyncWaiter extends WaiterRegistry.Waiter {
+        final A items;
+        final int off;
+        final boolean putting;
+        final long arrived = System.nanoTime();
+        final AsyncResult<Void> put_done = new AsyncResult<>(this);
+        final AsyncResult<A> taken = new AsyncResult<>(this);
+        // Guarded by lock
+        boolean carried_out = false, withdrawn = false;
+        // Why a put failed, set before it is completed
+        RuntimeException failure = null;
+
+        AsyncWaiter(A _items, int _off, boolean _putting, int _size) {
+            super(_size, null);
+            items = _items;
+            off = _off;
+            putting = _putting;
+        }
+
+        @Override
+        void signal() {
+            ready_async.addLast(this);
+        }
+    }
+
+    /*
+     * The future an async request hands its caller. Only the monitor
+     * can complete it with a result; the caller cancelling or
+     * completing it withdraws the request, and fails (returning false)
+     * once the request has been carried out, so the result is never
+     * thrown away.
+     */
+    private class AsyncResult<T> extends CompletableFuture<T> {
+        private final AsyncWaiter w;
+
+        AsyncResult(AsyncWaiter _w) {
+            w = _w;
+        }
+
+        @Override
+        public boolean cancel(boolean may_interrupt) {
+            return withdraw(w) && super.cancel(may_interrupt);
+        }
+
+        @Override
+        public boolean complete(T value) {
+            return withdraw(w) && super.complete(value);
+        }
+
+        @Override
+        public boolean completeExceptionally(Throwable failure) {
+            return withdraw(w) && super.completeExceptionally(failure);
+        }
+
+        @Override
+        public void obtrudeValue(T value) {
+            throw new UnsupportedOperationException("only the monitor completes an async request");
+        }
+
+        @Override
+        public void obtrudeException(Throwable failure) {
+            throw new UnsupportedOperationException("only the monitor completes an async request");
+        }
+
+        // Called once the request has been carried out
+        void deliver(T value) {
+            super.complete(value);
+        }
+
+        void fail(Throwable failure) {
+            super.completeExceptionally(failure);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package boundedbuffer;
+
+/*
+ * A fixed-size buffer shared between producers and consumers.
+ *
+ * put(items) blocks until all of *items* fit on the buffer and
+ * take(num) blocks until *num* items are on the buffer. Both
+ * are all-or-nothing: a batch is never split up between callers.
+ */
+public interface BoundedBuffer {
+    /*
+     * Add all of *items* to the buffer, waiting for space if necessary
+     */
+    public default void put(int[] items) {
+        put(items, 0, items.length);
+    }
+
+    /*
+     * Add src[off], ..., src[off+len-1] to the buffer, waiting for
+     * space if necessary
+     */
+    public void put(int[] src, int off, int len);
+
+    /*
+     * Take *num* things off the buffer, waiting for them if necessary
+     */
+    public default int[] take(int num) {
+        int[] items = new int[num];
+        take(items, 0, num);
+        return items;
+    }
+
+    /*
+     * Take *len* things off the buffer into dst[off], ..., dst[off+len-1],
+     * waiting for them if necessary. Allocates nothing.
+     */
+    public void take(int[] dst, int off, int len);
+
+    /*
+     * Take whatever is on the buffer right now, up to *max_len* things,
+     * into dst[off], ... without waiting. Returns how many were taken.
+     */
+    public int drainTo(int[] dst, int off, int max_len);
+}
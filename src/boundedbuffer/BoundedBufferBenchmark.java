@@ -0,0 +1,178 @@
+package boundedbuffer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measure put/take throughput of the bounded buffer implementations
+ */
+public class BoundedBufferBenchmark {
+    // Each producer puts <batches per producer> batches of <batch size> items.
+    // Consumer i takes (i % <batch size>) + 1 items at a time, and the
+    // consumers between them take everything the producers put.
+    //
+    // Reports items/sec and, on Linux, the context switches made by
+    // the producer and consumer threads. For the monitors, also reports
+    // the p99 wait of each take size. For the durable buffers (logged
+    // to a fresh temporary directory), also reports how many forces
+    // the puts took.
+    //
+    // <impl: monitor|monitor-signalall|monitor-fifo|spsc|mpsc|mpmc|sharded|durable-each|durable-group> <num producers> <num consumers>
+    // <batch size> <batches per producer> <buffer size> <optional-debug level (default INFO)>
+    public static void main(final String[] args) {
+        // I hate the default logger setup from java:
+        // https://stackoverflow.com/questions/194765/how-do-i-get-java-logging-output-to-appear-on-a-single-line
+        System.setProperty("java.util.logging.SimpleFormatter.format",
+            "%1$tF %1$tT %4$s %2$s %5$s%6$s%n");
+        if(!(6 <= args.length && args.length <= 7)) {
+            throw new IllegalArgumentException("Invalid args.length");
+        }
+        String impl = args[0];
+        int num_producers = Integer.parseInt(args[1]);
+        int num_consumers = Integer.parseInt(args[2]);
+        int batch_size = Integer.parseInt(args[3]);
+        int batches_per_producer = Integer.parseInt(args[4]);
+        int buf_size = Integer.parseInt(args[5]);
+        Level log_level = Level.INFO;
+        if(args.length == 7) {
+            log_level = Level.parse(args[6].toUpperCase());
+        }
+        Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        LOGGER.setLevel(log_level);
+        if(num_producers <= 0 || num_consumers <= 0 || batch_size <= 0 || batch_size > buf_size) {
+            throw new IllegalArgumentException("need positive thread counts and 0 < batch size <= buffer size");
+        }
+
+        BoundedBuffer buffer = build(impl, buf_size, num_producers, num_consumers);
+        // Split the items as evenly as we can among the consumers
+        long total_items = (long) num_producers * batches_per_producer * batch_size;
+        AtomicLong context_switches = new AtomicLong();
+        Thread threads[] = new Thread[num_producers + num_consumers];
+        for(int i = 0; i < num_consumers; ++i) {
+            long todo = total_items / num_consumers + (i < total_items % num_consumers ? 1 : 0);
+            int take_size = i % batch_size + 1;
+            threads[i] = new Thread(() -> {
+                long switches_before = contextSwitches();
+                int[] to_take = new int[take_size];
+                for(long left = todo; left > 0; left -= take_size) {
+                    buffer.take(to_take, 0, (int) Math.min(left, take_size));
+                }
+                context_switches.addAndGet(contextSwitches() - switches_before);
+            });
+        }
+        for(int i = 0; i < num_producers; ++i) {
+            threads[num_consumers + i] = new Thread(() -> {
+                long switches_before = contextSwitches();
+                int[] to_put = new int[batch_size];
+                for(int j = 0; j < batches_per_producer; ++j) {
+                    buffer.put(to_put);
+                }
+                context_switches.addAndGet(contextSwitches() - switches_before);
+            });
+        }
+
+        long start = System.nanoTime();
+        for(Thread t : threads) {
+            t.start();
+        }
+        for(Thread t : threads) {
+            try {
+                t.join();
+            }
+            catch(InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        double items_per_sec = total_items / (elapsed / 1e9);
+        LOGGER.info(String.format("%s: %d producers, %d consumers, batch %d, buffer %d: %.0f items/sec, %s context switches",
+                                  impl, num_producers, num_consumers, batch_size, buf_size, items_per_sec,
+                                  contextSwitches() < 0 ? "unknown" : Long.toString(context_switches.get())));
+        if(buffer instanceof DurableBoundedBuffer) {
+            LOGGER.info(String.format("%s: %d forces for %d puts", impl,
+                                      ((DurableBoundedBuffer) buffer).forces(),
+                                      (long) num_producers * batches_per_producer));
+        }
+        if(buffer instanceof BoundedBufferMonitor) {
+            BoundedBufferMonitor monitor = (BoundedBufferMonitor) buffer;
+            for(int size = 1; size <= Math.min(batch_size, num_consumers); ++size) {
+                LOGGER.info(String.format("%s: take(%d) p99 wait %.1f us",
+                                          impl, size, monitor.takeWaitPercentile(size, 99) / 1e3));
+            }
+        }
+    }
+
+    /*
+     * Build the buffer named *impl*, checking it supports the
+     * requested number of producers/consumers
+     */
+    static BoundedBuffer build(String impl, int buf_size, int num_producers, int num_consumers) {
+        LockFreeBoundedBuffer.Mode mode;
+        switch(impl.toLowerCase()) {
+            case "monitor":
+                return new BoundedBufferMonitor(buf_size, BoundedBufferMonitor.Wakeups.TARGETED);
+            case "monitor-signalall":
+                return new BoundedBufferMonitor(buf_size, BoundedBufferMonitor.Wakeups.SIGNAL_ALL);
+            case "monitor-fifo":
+                return new BoundedBufferMonitor(buf_size, BoundedBufferMonitor.Wakeups.TARGETED,
+                                                BoundedBufferMonitor.Admission.FIFO);
+            case "durable-each":
+                return durable(buf_size, DurableBoundedBuffer.Durability.FORCE_EACH_PUT);
+            case "durable-group":
+                return durable(buf_size, DurableBoundedBuffer.Durability.GROUP_COMMIT);
+            case "sharded":
+                // one shard per core
+                return new ShardedBoundedBuffer(buf_size, Runtime.getRuntime().availableProcessors());
+            case "spsc":
+                mode = LockFreeBoundedBuffer.Mode.SPSC;
+                break;
+            case "mpsc":
+                mode = LockFreeBoundedBuffer.Mode.MPSC;
+                break;
+            case "mpmc":
+                mode = LockFreeBoundedBuffer.Mode.MPMC;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown impl " + impl);
+        }
+        if((!mode.multi_producer && num_producers > 1) || (!mode.multi_consumer && num_consumers > 1)) {
+            throw new IllegalArgumentException(impl + " does not support "
+                                               + num_producers + " producers and "
+                                               + num_consumers + " consumers");
+        }
+        return new LockFreeBoundedBuffer(buf_size, mode);
+    }
+
+    private static DurableBoundedBuffer durable(int buf_size, DurableBoundedBuffer.Durability durability) {
+        try {
+            return new DurableBoundedBuffer(Files.createTempDirectory("boundedbuffer"), buf_size, durability);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+     * Voluntary + involuntary context switches made so far by the
+     * calling thread, or -1 if the OS won't tell us (not Linux)
+     */
+    static long contextSwitches() {
+        try {
+            long total = 0;
+            for(String line : Files.readAllLines(Paths.get("/proc/thread-self/status"))) {
+                if(line.contains("ctxt_switches:")) {
+                    total += Long.parseLong(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+            return total;
+        }
+        catch(IOException | NumberFormatException e) {
+            return -1;
+        }
+    }
+}
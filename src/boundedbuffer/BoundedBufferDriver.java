@@ -149,11 +149,11 @@ class Consumer extends Thread {
      * Just try to consume num_consumptions consumption_size times
      */
     public void run() {
-        int [] to_consume;
+        int [] to_consume = new int[consumption_size];
         for(int i = 0; i < num_consumptions; ++i) {
             LOGGER.info(String.format("Consumer thread:%s trying to read %d values from buffer",
                                       this.getName(), consumption_size));
-            to_consume = monitor.take(consumption_size);
+            monitor.take(to_consume, 0, consumption_size);
             LOGGER.info(String.format("Consumer thread:%s read %s",
                                       this.getName(), Arrays.toString(to_consume)));
         }
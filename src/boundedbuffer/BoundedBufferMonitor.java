@@ -1,86 +1,32 @@
 package boundedbuffer;
 
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
-
 /*
-* A monitor which holds a shared fixed-size buffer.
+* A monitor which holds a shared fixed-size buffer of ints.
 * producers must wait if the buffer is full and
 * consumers must wait if the buffer is empty
 */
-public class BoundedBufferMonitor {
-    private int[] shared_buffer;
-    // front back allow us to "wrap around" the buffer
-    // buf_size is capacity, count is current number of objects on the
-    // buffer.
-    private int front, back, buf_size, count;
-
-    private ReentrantLock lock = new ReentrantLock();
-    private Condition space_on_buffer = lock.newCondition(),
-        items_on_buffer = lock.newCondition();
-
+public class BoundedBufferMonitor extends AbstractBoundedBufferMonitor<int[]>
+                                  implements BoundedBuffer {
     /*
     * Create a buffer size
     */
     public BoundedBufferMonitor(int buf_size) {
-        shared_buffer = new int [buf_size];
-        this.buf_size = buf_size;
-        count = front = back = 0;
+        this(buf_size, Wakeups.TARGETED, Admission.BARGING);
     }
 
     /*
-    * Add something to the buffer
+    * Create a buffer size which wakes waiters as described
+    * by *wakeups*
     */
-    public void put(int[] items) {
-        lock.lock();
-        try {
-            // wait for space to drop in items 
-            // (count is available space, so need count+0, count+1,...
-            //  count+items.length-1, i.e. count+items.length -1<buf_size
-            //  i.e. count+items.length < buf_size+1
-            while(items.length + count > buf_size) {
-                try{
-                    space_on_buffer.await();
-                }
-                catch(InterruptedException e) { }
-            } 
-            for(int i = 0; i < items.length; i++, back = (back+1) % buf_size) {
-                shared_buffer[back] = items[i];
-            }
-            count += items.length;
-            // now threads waiting for items might want to be notified
-            items_on_buffer.signalAll();
-        }
-        finally {
-            lock.unlock();
-        }
+    public BoundedBufferMonitor(int buf_size, Wakeups wakeups) {
+        this(buf_size, wakeups, Admission.BARGING);
     }
 
     /*
-     * Take num things off the buffer
-     */
-    public int[] take(int num) {
-        int[] items = new int[num];
-        lock.lock();
-        try {
-            // Wait until there are at least *num* items 
-            while(count < num) {
-                try{
-                    items_on_buffer.await();
-                }
-                catch(InterruptedException e) { }
-            } 
-            // Grab the *num* items off of the array
-            for(int i = 0; i < num; ++i, front = (front+1) % buf_size) {
-                items[i] = shared_buffer[front];
-            }
-            count -= num;
-            // Now wake any threads waiting for space
-            space_on_buffer.signalAll();
-        }
-        finally {
-            lock.unlock();
-        }
-        return items;
+    * Create a buffer size which wakes waiters as described
+    * by *wakeups* and admits them as described by *admission*
+    */
+    public BoundedBufferMonitor(int buf_size, Wakeups wakeups, Admission admission) {
+        super(new int [buf_size], wakeups, admission);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,171 @@
+package boundedbuffer;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Publishes the items taken off a BoundedBufferMonitor to Flow
+ * subscribers, at the pace the subscribers ask for.
+ *
+ * Demand is added up and served with as few buffer transfers as
+ * possible: each transfer drains up to min(demand, max_batch) items
+ * in one go. When the buffer is empty the subscription waits with
+ * takeAsync(1), so no thread blocks or polls; whichever producer
+ * supplies the item resumes delivery.
+ *
+ * Each subscriber gets its own subscription, and subscribers
+ * compete for items (each item goes to exactly one of them). The
+ * buffer never ends, so onComplete is never signalled.
+ *
+ * Cancelling a subscription withdraws its takeAsync. If the item had
+ * already been taken for it, the item is put back on the buffer (at
+ * the back, behind whatever arrived meanwhile).
+ */
+public class BoundedBufferPublisher implements Flow.Publisher<Integer> {
+    private Logger LOGGER = Logger.getLogger(BoundedBufferPublisher.class.getName());
+    private final BoundedBufferMonitor monitor;
+    private final int max_batch;
+
+    /*
+     * Publish from *monitor*, moving at most *max_batch*
+     * items per transfer
+     */
+    public BoundedBufferPublisher(BoundedBufferMonitor monitor, int max_batch) {
+        if(max_batch <= 0) {
+            throw new IllegalArgumentException("max_batch must be positive");
+        }
+        this.monitor = monitor;
+        this.max_batch = max_batch;
+    }
+
+    public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+        BufferSubscription subscription = new BufferSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    /*
+     * Deliveries happen in drain(), which only ever runs on one thread
+     * at a time (whoever bumps *wip* from 0), so onNext and onError
+     * are serial
+     */
+    private class BufferSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super Integer> subscriber;
+        private final int[] batch = new int[max_batch];
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled = false, waiting = false;
+        // The takeAsync we are waiting on, if any
+        private volatile CompletableFuture<int[]> pending = null;
+        // An item delivered by takeAsync that we have not passed on yet
+        private volatile int[] held = null;
+        // To be delivered by drain(), which then stops
+        private volatile Throwable error = null;
+
+        BufferSubscription(Flow.Subscriber<? super Integer> _subscriber) {
+            subscriber = _subscriber;
+        }
+
+        public void request(long n) {
+            if(n <= 0) {
+                error = new IllegalArgumentException("request must be positive, was " + n);
+                drain();
+                return;
+            }
+            // Add without overflowing: Long.MAX_VALUE means unbounded
+            demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            drain();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            withdraw();
+            drain();
+        }
+
+        void drain() {
+            if(wip.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                Throwable failure = error;
+                if(failure != null && !cancelled) {
+                    // Stop first, so nothing follows onError
+                    cancelled = true;
+                    subscriber.onError(failure);
+                }
+                if(cancelled) {
+                    // A takeAsync may have been started after cancel()
+                    // looked, and an item may have arrived first
+                    withdraw();
+                    handBack();
+                    continue;
+                }
+                int[] item = held;
+                if(item != null && demand.get() > 0) {
+                    held = null;
+                    demand.decrementAndGet();
+                    subscriber.onNext(item[0]);
+                }
+                while(!cancelled && !waiting && held == null && demand.get() > 0) {
+                    int got = monitor.drainTo(batch, 0, (int) Math.min(demand.get(), max_batch));
+                    if(got == 0) {
+                        // Nothing there, get called back with the next item
+                        waiting = true;
+                        CompletableFuture<int[]> take = monitor.takeAsync(1);
+                        pending = take;
+                        take.whenComplete((taken, take_failure) -> {
+                            // Withdrawn unless the item was taken first
+                            if(taken != null) {
+                                held = taken;
+                            }
+                            else if(!(take_failure instanceof CancellationException)) {
+                                error = take_failure;
+                            }
+                            pending = null;
+                            waiting = false;
+                            drain();
+                        });
+                        break;
+                    }
+                    demand.addAndGet(-got);
+                    for(int i = 0; i < got; ++i) {
+                        subscriber.onNext(batch[i]);
+                    }
+                }
+            } while(wip.decrementAndGet() != 0);
+        }
+
+        /*
+         * Withdraw the takeAsync we are waiting on. If the item was
+         * already taken it still arrives, and is handed back.
+         */
+        private void withdraw() {
+            CompletableFuture<int[]> take = pending;
+            if(take != null) {
+                take.cancel(false);
+            }
+        }
+
+        /*
+         * Put an item we took but never delivered back on the buffer
+         */
+        private void handBack() {
+            int[] item = held;
+            held = null;
+            if(item == null) {
+                return;
+            }
+            monitor.putAsync(item).whenComplete((ignored, failure) -> {
+                if(failure != null) {
+                    LOGGER.log(Level.WARNING, "Lost item " + item[0] + " handing it back to the buffer", failure);
+                }
+            });
+        }
+    }
+}
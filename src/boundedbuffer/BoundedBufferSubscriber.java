@@ -0,0 +1,113 @@
+package boundedbuffer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/*
+ * Puts the items of a Flow publisher onto a BoundedBufferMonitor,
+ * only asking the publisher for as many items as will fit.
+ *
+ * Items are collected into a batch of up to *max_batch*, sized to
+ * the free space on the buffer when it is requested, and the whole
+ * batch goes on with one putAsync. The next batch is only requested
+ * once that put lands, so a slow consumer of the buffer slows the
+ * publisher down instead of piling items up in memory, and no thread
+ * blocks waiting for space.
+ */
+public class BoundedBufferSubscriber implements Flow.Subscriber<Integer> {
+    private final BoundedBufferMonitor monitor;
+    private final int[] batch;
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+    private Flow.Subscription subscription;
+    // how many items we asked for and how many of them have arrived
+    private int requested = 0, filled = 0;
+    // the put of the last full batch, the next one is only
+    // requested once it lands
+    private volatile CompletableFuture<Void> in_flight = CompletableFuture.completedFuture(null);
+
+    /*
+     * Feed *monitor*, at most *max_batch* items per put
+     */
+    public BoundedBufferSubscriber(BoundedBufferMonitor monitor, int max_batch) {
+        if(max_batch <= 0) {
+            throw new IllegalArgumentException("max_batch must be positive");
+        }
+        this.monitor = monitor;
+        batch = new int[Math.min(max_batch, monitor.capacity())];
+    }
+
+    /*
+     * Completes once the publisher has completed and every item it
+     * sent is on the buffer, or exceptionally if the publisher failed
+     * or a put did (which also cancels the subscription)
+     */
+    public CompletableFuture<Void> done() {
+        return done;
+    }
+
+    public void onSubscribe(Flow.Subscription _subscription) {
+        if(subscription != null) {
+            _subscription.cancel();
+            return;
+        }
+        subscription = _subscription;
+        requestBatch();
+    }
+
+    public void onNext(Integer item) {
+        batch[filled++] = item;
+        if(filled == requested) {
+            int num = filled;
+            // Nothing more arrives until we ask again, so
+            // batch is left alone while the put is in flight
+            filled = 0;
+            in_flight = monitor.putAsync(batch, 0, num);
+            in_flight.whenComplete((ignored, e) -> {
+                if(e != null) {
+                    // Nowhere to put any more items
+                    subscription.cancel();
+                    done.completeExceptionally(e);
+                }
+                else {
+                    requestBatch();
+                }
+            });
+        }
+    }
+
+    public void onError(Throwable error) {
+        // Keep what we got, then report the failure
+        flush().whenComplete((ignored, e) -> done.completeExceptionally(error));
+    }
+
+    public void onComplete() {
+        flush().whenComplete((ignored, e) -> {
+            if(e != null) {
+                done.completeExceptionally(e);
+            }
+            else {
+                done.complete(null);
+            }
+        });
+    }
+
+    /*
+     * Ask for as much as there is room for right now (at least one
+     * item, or we'd never hear from the publisher again)
+     */
+    private void requestBatch() {
+        requested = Math.max(1, Math.min(batch.length, monitor.remainingCapacity()));
+        subscription.request(requested);
+    }
+
+    /*
+     * Put whatever partial batch we have, after any full batch
+     * still in flight
+     */
+    private CompletableFuture<Void> flush() {
+        int num = filled;
+        filled = 0;
+        return in_flight.thenCompose(ignored -> num == 0 ? CompletableFuture.completedFuture(null)
+                                                         : monitor.putAsync(batch, 0, num));
+    }
+}
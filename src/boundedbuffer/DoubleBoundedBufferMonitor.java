@@ -0,0 +1,39 @@
+package boundedbuffer;
+
+/*
+* A monitor which holds a shared fixed-size buffer of doubles.
+* producers must wait if the buffer is full and
+* consumers must wait if the buffer is empty
+*/
+public class DoubleBoundedBufferMonitor extends AbstractBoundedBufferMonitor<double[]> {
+    /*
+    * Create a buffer size
+    */
+    public DoubleBoundedBufferMonitor(int buf_size) {
+        this(buf_size, Wakeups.TARGETED, Admission.BARGING);
+    }
+
+    /*
+    * Create a buffer size which wakes waiters as described
+    * by *wakeups* and admits them as described by *admission*
+    */
+    public DoubleBoundedBufferMonitor(int buf_size, Wakeups wakeups, Admission admission) {
+        super(new double [buf_size], wakeups, admission);
+    }
+
+    /*
+    * Add all of *items* to the buffer
+    */
+    public void put(double[] items) {
+        put(items, 0, items.length);
+    }
+
+    /*
+     * Take num things off the buffer
+     */
+    public double[] take(int num) {
+        double[] items = new double[num];
+        take(items, 0, num);
+        return items;
+    }
+}
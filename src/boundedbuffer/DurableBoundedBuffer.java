@@ -0,0 +1,127 @@
+package boundedbuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+/*
+ * A BoundedBufferMonitor whose contents survive a crash.
+ *
+ * Every put is appended to a SegmentLog (memory-mapped segment files
+ * in a directory) in the same order the items go on the buffer, and
+ * every take moves the log's checkpoint of how many items were taken.
+ * put() only returns once its items are on disk. Opening the buffer
+ * on a directory left behind by an earlier run puts back everything
+ * that was put but not taken, by scanning the log sequentially.
+ *
+ * With GROUP_COMMIT, producers waiting for their puts to reach the
+ * disk share the force: whoever gets there first forces everything
+ * logged so far (covering any other puts that landed meanwhile) and
+ * the rest wait for it instead of queueing up forces of their own.
+ * With FORCE_EACH_PUT every put forces on its own.
+ *
+ * Takes are only made durable by the next force, so after a crash the
+ * last few items taken may come back (at-least-once delivery). Async
+ * puts are logged like any other but putAsync doesn't wait for the
+ * disk, the next force covers them.
+ *
+ * Items are logged before they go on the buffer. If logging them
+ * fails they don't go on, and the put throws UncheckedIOException
+ * (or an async put's future completes with it).
+ */
+public class DurableBoundedBuffer extends BoundedBufferMonitor implements Closeable {
+    public enum Durability { FORCE_EACH_PUT, GROUP_COMMIT }
+
+    // Big enough for thousands of full-buffer puts between rolls
+    private static final int MIN_SEGMENT_SIZE = 1 << 20;
+
+    private final SegmentLog log;
+    private boolean recovering = false;
+
+    /*
+     * Open the buffer of size *buf_size* logged in *dir*, recovering
+     * whatever an earlier run left there
+     */
+    public DurableBoundedBuffer(Path dir, int buf_size, Durability durability) throws IOException {
+        this(dir, buf_size, durability, Wakeups.TARGETED, Admission.BARGING);
+    }
+
+    /*
+     * Open the buffer of size *buf_size* logged in *dir*, which wakes
+     * waiters as described by *wakeups* and admits them as described
+     * by *admission*. The buffer must be big enough to hold what an
+     * earlier run left behind.
+     */
+    public DurableBoundedBuffer(Path dir, int buf_size, Durability durability,
+                                Wakeups wakeups, Admission admission) throws IOException {
+        super(buf_size, wakeups, admission);
+        int segment_size = Math.max(MIN_SEGMENT_SIZE, 16 + 4 * buf_size);
+        log = new SegmentLog(dir, (segment_size + 3) / 4 * 4, durability == Durability.GROUP_COMMIT);
+        int[] recovered = log.recover();
+        if(recovered.length > buf_size) {
+            throw new IOException(dir + " holds " + recovered.length + " items, more than buf_size " + buf_size);
+        }
+        // Already in the log, don't append them again
+        recovering = true;
+        try {
+            super.put(recovered, 0, recovered.length);
+        }
+        finally {
+            recovering = false;
+        }
+    }
+
+    /*
+     * Add src[off], ..., src[off+len-1] to the buffer, returning
+     * once they are on disk
+     */
+    @Override
+    public void put(int[] src, int off, int len) {
+        super.put(src, off, len);
+        // Everything logged by now, including our items
+        sync(log.appended());
+    }
+
+    /*
+     * Number of forces done so far, to see how much
+     * group commit is sharing
+     */
+    public long forces() {
+        return log.forces();
+    }
+
+    /*
+     * Make everything put and taken so far durable
+     */
+    public void close() throws IOException {
+        log.close();
+    }
+
+    @Override
+    protected void itemsPut(int[] src, int off, int len) {
+        if(recovering) {
+            return;
+        }
+        try {
+            log.append(src, off, len);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void itemsTaken(int len) {
+        log.taken(len);
+    }
+
+    private void sync(long seq) {
+        try {
+            log.sync(seq);
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
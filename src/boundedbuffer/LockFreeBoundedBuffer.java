@@ -0,0 +1,206 @@
+package boundedbuffer;
+
+import java.util.Objects;
+
+/*
+ * A bounded buffer with the same put/take contract as
+ * BoundedBufferMonitor, but no lock.
+ *
+ * Producers claim a run of slots by advancing *put_claimed*, copy
+ * their items in, then publish the run by advancing *put_published*
+ * (Disruptor-style claim/publish). Consumers do the same with
+ * *take_claimed* and *take_released*. Runs are published/released
+ * in claim order, so each cursor alone says which slots are readable
+ * or free. Callers only park when the buffer really is too full or
+ * too empty for their batch.
+ *
+ * Each cursor is a padded Sequence so producers and consumers
+ * don't fight over one cache line.
+ */
+public class LockFreeBoundedBuffer implements BoundedBuffer {
+    /*
+     * Which sides of the buffer may be used by more than one thread.
+     * Single-threaded sides skip the CAS on claim and the in-order
+     * wait on publish/release.
+     */
+    public enum Mode {
+        SPSC(false, false),
+        MPSC(true, false),
+        MPMC(true, true);
+
+        final boolean multi_producer, multi_consumer;
+
+        Mode(boolean _multi_producer, boolean _multi_consumer) {
+            multi_producer = _multi_producer;
+            multi_consumer = _multi_consumer;
+        }
+    }
+
+    // How long to spin/yield before parking a waiting thread
+    private static final int SPIN_TRIES = 64, YIELD_TRIES = 16;
+    // How long to spin before yielding while waiting on a predecessor
+    // to finish its copy
+    private static final int TURN_SPIN_TRIES = 128;
+
+    private final int[] shared_buffer;
+    private final int buf_size;
+    private final Mode mode;
+
+    // Every slot before put_published is readable, every slot
+    // before take_released is free. Sequences only ever grow, a
+    // sequence's slot is sequence % buf_size
+    private final Sequence put_claimed = new Sequence(0),
+        put_published = new Sequence(0),
+        take_claimed = new Sequence(0),
+        take_released = new Sequence(0);
+
+    private final WaitStrategy space_on_buffer = new WaitStrategy(SPIN_TRIES, YIELD_TRIES),
+        items_on_buffer = new WaitStrategy(SPIN_TRIES, YIELD_TRIES);
+
+    /*
+     * Create a buffer of size *buf_size* usable as described by *mode*
+     */
+    public LockFreeBoundedBuffer(int buf_size, Mode mode) {
+        if(buf_size <= 0) {
+            throw new IllegalArgumentException("buf_size must be positive");
+        }
+        shared_buffer = new int[buf_size];
+        this.buf_size = buf_size;
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    /*
+     * Add src[off], ..., src[off+len-1] to the buffer
+     *
+     * Unlike the monitor, a batch bigger than the whole buffer
+     * is rejected rather than waiting forever
+     */
+    public void put(int[] src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        checkBatchSize(len);
+        long start = claimSpace(len);
+        // Copy in with at most two arraycopys (the run may wrap)
+        int back = (int) (start % buf_size),
+            first = Math.min(len, buf_size - back);
+        System.arraycopy(src, off, shared_buffer, back, first);
+        System.arraycopy(src, off + first, shared_buffer, 0, len - first);
+        advanceInOrder(put_published, start, len, mode.multi_producer);
+        // now threads waiting for items might want to be notified
+        items_on_buffer.wakeAll();
+    }
+
+    /*
+     * Take len things off the buffer into dst[off], ..., dst[off+len-1]
+     */
+    public void take(int[] dst, int off, int len) {
+        Objects.checkFromIndexSize(off, len, dst.length);
+        checkBatchSize(len);
+        copyOut(claimItems(len), dst, off, len);
+    }
+
+    /*
+     * Take up to max_len things off the buffer into dst[off], ...
+     * without waiting for more to be published
+     */
+    public int drainTo(int[] dst, int off, int max_len) {
+        Objects.checkFromIndexSize(off, max_len, dst.length);
+        while(true) {
+            long start = take_claimed.get();
+            int num = (int) Math.min(max_len, put_published.get() - start);
+            if(num <= 0) {
+                return 0;
+            }
+            if(!mode.multi_consumer) {
+                take_claimed.set(start + num);
+            }
+            else if(!take_claimed.compareAndSet(start, start + num)) {
+                continue;
+            }
+            copyOut(start, dst, off, num);
+            return num;
+        }
+    }
+
+    /*
+     * Copy out the claimed run of *len* items starting at
+     * sequence *start*, then hand their slots back to producers
+     */
+    private void copyOut(long start, int[] dst, int off, int len) {
+        int front = (int) (start % buf_size),
+            first = Math.min(len, buf_size - front);
+        System.arraycopy(shared_buffer, front, dst, off, first);
+        System.arraycopy(shared_buffer, 0, dst, off + first, len - first);
+        advanceInOrder(take_released, start, len, mode.multi_consumer);
+        // Now wake any threads waiting for space
+        space_on_buffer.wakeAll();
+    }
+
+    private void checkBatchSize(int n) {
+        if(n < 0 || n > buf_size) {
+            throw new IllegalArgumentException("batch size must be in range [0," + buf_size + "]");
+        }
+    }
+
+    /*
+     * Claim *n* free slots and return the sequence of the first one
+     */
+    private long claimSpace(int n) {
+        while(true) {
+            long start = put_claimed.get();
+            if(start + n - take_released.get() > buf_size) {
+                space_on_buffer.awaitUntil(() -> put_claimed.get() + n - take_released.get() <= buf_size);
+                continue;
+            }
+            if(!mode.multi_producer) {
+                put_claimed.set(start + n);
+                return start;
+            }
+            if(put_claimed.compareAndSet(start, start + n)) {
+                return start;
+            }
+        }
+    }
+
+    /*
+     * Claim *n* published items and return the sequence of the first one
+     */
+    private long claimItems(int n) {
+        while(true) {
+            long start = take_claimed.get();
+            if(put_published.get() - start < n) {
+                items_on_buffer.awaitUntil(() -> put_published.get() - take_claimed.get() >= n);
+                continue;
+            }
+            if(!mode.multi_consumer) {
+                take_claimed.set(start + n);
+                return start;
+            }
+            if(take_claimed.compareAndSet(start, start + n)) {
+                return start;
+            }
+        }
+    }
+
+    /*
+     * Move *cursor* from *start* to *start + n*. With several threads on
+     * this side, first wait for whoever claimed the run before ours;
+     * they are only copying, so this wait is short and never parks.
+     */
+    private static void advanceInOrder(Sequence cursor, long start, int n, boolean shared) {
+        if(shared) {
+            for(int i = 0; cursor.get() != start; ++i) {
+                if(i < TURN_SPIN_TRIES) {
+                    Thread.onSpinWait();
+                }
+                else {
+                    Thread.yield();
+                }
+            }
+        }
+        cursor.set(start + n);
+    }
+}
@@ -0,0 +1,39 @@
+package boundedbuffer;
+
+/*
+* A monitor which holds a shared fixed-size buffer of longs.
+* producers must wait if the buffer is full and
+* consumers must wait if the buffer is empty
+*/
+public class LongBoundedBufferMonitor extends AbstractBoundedBufferMonitor<long[]> {
+    /*
+    * Create a buffer size
+    */
+    public LongBoundedBufferMonitor(int buf_size) {
+        this(buf_size, Wakeups.TARGETED, Admission.BARGING);
+    }
+
+    /*
+    * Create a buffer size which wakes waiters as described
+    * by *wakeups* and admits them as described by *admission*
+    */
+    public LongBoundedBufferMonitor(int buf_size, Wakeups wakeups, Admission admission) {
+        super(new long [buf_size], wakeups, admission);
+    }
+
+    /*
+    * Add all of *items* to the buffer
+    */
+    public void put(long[] items) {
+        put(items, 0, items.length);
+    }
+
+    /*
+     * Take num things off the buffer
+     */
+    public long[] take(int num) {
+        long[] items = new long[num];
+        take(items, 0, num);
+        return items;
+    }
+}
@@ -0,0 +1,233 @@
+package boundedbuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * A bounded buffer that lives in a memory-mapped file, so threads in
+ * different processes on one host can share it. Any number of processes
+ * may map the same file and put/take concurrently.
+ *
+ * Uses the same claim/publish scheme as LockFreeBoundedBuffer, with the
+ * four cursors kept in the mapped file (each on its own cache line) and
+ * updated with atomic ops on the mapping. Items are copied straight
+ * between the caller's array and the mapping.
+ *
+ * We can't unpark a thread in another process, so waiters spin, yield,
+ * then poll with a growing parkNanos until their batch can go through.
+ *
+ * A process that dies between claiming and publishing (or releasing)
+ * a run stalls everybody after it, there is no recovery. Threads in
+ * one process should share a single MappedBoundedBuffer per file.
+ *
+ * File layout (native byte order):
+ *   0       magic, capacity
+ *   64      put_claimed
+ *   128     put_published
+ *   192     take_claimed
+ *   256     take_released
+ *   320...  capacity ints
+ */
+public class MappedBoundedBuffer implements BoundedBuffer, Closeable {
+    private static final int MAGIC = 0x42425546; // "BBUF"
+    private static final int MAGIC_OFFSET = 0,
+        CAPACITY_OFFSET = 4,
+        PUT_CLAIMED = 64,
+        PUT_PUBLISHED = 128,
+        TAKE_CLAIMED = 192,
+        TAKE_RELEASED = 256,
+        DATA_OFFSET = 320;
+
+    private static final int SPIN_TRIES = 64, YIELD_TRIES = 16;
+    private static final long MIN_PARK_NANOS = 1_000, MAX_PARK_NANOS = 1_000_000;
+
+    private static final VarHandle LONG_AT = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final FileChannel channel;
+    private final MappedByteBuffer mapped;
+    private final IntBuffer shared_buffer;
+    private final int buf_size;
+
+    /*
+     * Map the buffer in *file*, creating it with room for *buf_size*
+     * items if it doesn't exist yet. If it does exist it must have
+     * been created with the same *buf_size*.
+     */
+    public MappedBoundedBuffer(Path file, int buf_size) throws IOException {
+        if(buf_size <= 0) {
+            throw new IllegalArgumentException("buf_size must be positive");
+        }
+        this.buf_size = buf_size;
+        channel = FileChannel.open(file, StandardOpenOption.READ,
+                                   StandardOpenOption.WRITE,
+                                   StandardOpenOption.CREATE);
+        try {
+            long file_size = DATA_OFFSET + 4L * buf_size;
+            // Lock the file so only one process sets up the header
+            FileLock init_lock = channel.lock();
+            try {
+                boolean fresh = channel.size() == 0;
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, file_size);
+                mapped.order(ByteOrder.nativeOrder());
+                if(fresh) {
+                    mapped.putInt(CAPACITY_OFFSET, buf_size);
+                    mapped.putInt(MAGIC_OFFSET, MAGIC);
+                    mapped.force();
+                }
+                else if(mapped.getInt(MAGIC_OFFSET) != MAGIC || mapped.getInt(CAPACITY_OFFSET) != buf_size) {
+                    throw new IOException(file + " is not a bounded buffer of size " + buf_size);
+                }
+            }
+            finally {
+                init_lock.release();
+            }
+            shared_buffer = mapped.slice(DATA_OFFSET, 4 * buf_size)
+                .order(ByteOrder.nativeOrder())
+                .asIntBuffer();
+        }
+        catch(IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /*
+     * Add src[off], ..., src[off+len-1] to the buffer
+     *
+     * A batch bigger than the whole buffer is rejected
+     * rather than waiting forever
+     */
+    public void put(int[] src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        checkBatchSize(len);
+        long start;
+        // Claim *len* free slots
+        for(int i = 0; ; ++i) {
+            start = get(PUT_CLAIMED);
+            if(start + len - get(TAKE_RELEASED) > buf_size) {
+                backOff(i);
+            }
+            else if(compareAndSet(PUT_CLAIMED, start, start + len)) {
+                break;
+            }
+        }
+        // Copy in with at most two bulk puts (the run may wrap)
+        int back = (int) (start % buf_size),
+            first = Math.min(len, buf_size - back);
+        shared_buffer.put(back, src, off, first);
+        shared_buffer.put(0, src, off + first, len - first);
+        advanceInOrder(PUT_PUBLISHED, start, len);
+    }
+
+    /*
+     * Take len things off the buffer into dst[off], ..., dst[off+len-1]
+     */
+    public void take(int[] dst, int off, int len) {
+        Objects.checkFromIndexSize(off, len, dst.length);
+        checkBatchSize(len);
+        long start;
+        // Claim *len* published items
+        for(int i = 0; ; ++i) {
+            start = get(TAKE_CLAIMED);
+            if(get(PUT_PUBLISHED) - start < len) {
+                backOff(i);
+            }
+            else if(compareAndSet(TAKE_CLAIMED, start, start + len)) {
+                break;
+            }
+        }
+        copyOut(start, dst, off, len);
+    }
+
+    /*
+     * Take up to max_len things off the buffer into dst[off], ...
+     * without waiting for more to be published
+     */
+    public int drainTo(int[] dst, int off, int max_len) {
+        Objects.checkFromIndexSize(off, max_len, dst.length);
+        while(true) {
+            long start = get(TAKE_CLAIMED);
+            int num = (int) Math.min(max_len, get(PUT_PUBLISHED) - start);
+            if(num <= 0) {
+                return 0;
+            }
+            if(compareAndSet(TAKE_CLAIMED, start, start + num)) {
+                copyOut(start, dst, off, num);
+                return num;
+            }
+        }
+    }
+
+    /*
+     * Unmaps lazily: the mapping stays valid until it is garbage
+     * collected, but the file handle is released now
+     */
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /*
+     * Copy out the claimed run of *len* items starting at
+     * sequence *start*, then hand their slots back to producers
+     */
+    private void copyOut(long start, int[] dst, int off, int len) {
+        int front = (int) (start % buf_size),
+            first = Math.min(len, buf_size - front);
+        shared_buffer.get(front, dst, off, first);
+        shared_buffer.get(0, dst, off + first, len - first);
+        advanceInOrder(TAKE_RELEASED, start, len);
+    }
+
+    private void checkBatchSize(int n) {
+        if(n < 0 || n > buf_size) {
+            throw new IllegalArgumentException("batch size must be in range [0," + buf_size + "]");
+        }
+    }
+
+    /*
+     * Move the cursor at *offset* from *start* to *start + n* once
+     * whoever claimed the run before ours has moved it to *start*
+     */
+    private void advanceInOrder(int offset, long start, int n) {
+        for(int i = 0; get(offset) != start; ++i) {
+            backOff(i);
+        }
+        LONG_AT.setVolatile(mapped, offset, start + n);
+    }
+
+    /*
+     * Wait a little before the *attempt*th re-check: spin, then yield,
+     * then sleep for exponentially longer (capped) stretches
+     */
+    private static void backOff(int attempt) {
+        if(attempt < SPIN_TRIES) {
+            Thread.onSpinWait();
+        }
+        else if(attempt < SPIN_TRIES + YIELD_TRIES) {
+            Thread.yield();
+        }
+        else {
+            int doublings = Math.min(attempt - SPIN_TRIES - YIELD_TRIES, 10);
+            LockSupport.parkNanos(Math.min(MIN_PARK_NANOS << doublings, MAX_PARK_NANOS));
+        }
+    }
+
+    private long get(int offset) {
+        return (long) LONG_AT.getVolatile(mapped, offset);
+    }
+
+    private boolean compareAndSet(int offset, long expected, long new_value) {
+        return LONG_AT.compareAndSet(mapped, offset, expected, new_value);
+    }
+}
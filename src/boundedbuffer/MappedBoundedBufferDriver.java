@@ -0,0 +1,112 @@
+package boundedbuffer;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One process of a multi-process run of MappedBoundedBuffer. Start a
+ * producer and a consumer with the same file from two shells:
+ *
+ *   java -cp boundedbuffer.jar boundedbuffer.MappedBoundedBufferDriver /tmp/bb producer 10 1000 64
+ *   java -cp boundedbuffer.jar boundedbuffer.MappedBoundedBufferDriver /tmp/bb consumer 10 1000 64
+ *
+ * Producer k (role producer-k, plain producer is producer-0) puts
+ * k * PRODUCER_RANGE, k * PRODUCER_RANGE + 1, ... and the consumer
+ * checks it gets each producer's items back in increasing order.
+ * Several producers (with different k) and consumers may share the
+ * file, as long as the batch counts add up:
+ *
+ *   java -cp boundedbuffer.jar boundedbuffer.MappedBoundedBufferDriver /tmp/bb producer-0 10 1000 64
+ *   java -cp boundedbuffer.jar boundedbuffer.MappedBoundedBufferDriver /tmp/bb producer-1 10 1000 64
+ *   java -cp boundedbuffer.jar boundedbuffer.MappedBoundedBufferDriver /tmp/bb consumer 10 2000 64
+ *
+ * Delete the file between runs.
+ */
+public class MappedBoundedBufferDriver {
+    // Items each producer numbers its puts from, so there
+    // is room for 128 producers in the positive ints
+    private static final int PRODUCER_RANGE = 1 << 24;
+
+    // <file> <producer[-k]|consumer> <batch size> <num batches> <buffer size>
+    // <optional-debug level (default INFO)>
+    public static void main(final String[] args) throws IOException {
+        // I hate the default logger setup from java:
+        // https://stackoverflow.com/questions/194765/how-do-i-get-java-logging-output-to-appear-on-a-single-line
+        System.setProperty("java.util.logging.SimpleFormatter.format",
+            "%1$tF %1$tT %4$s %2$s %5$s%6$s%n");
+        if(!(5 <= args.length && args.length <= 6)) {
+            throw new IllegalArgumentException("Invalid args.length");
+        }
+        String file = args[0], role = args[1];
+        int batch_size = Integer.parseInt(args[2]);
+        int num_batches = Integer.parseInt(args[3]);
+        int buf_size = Integer.parseInt(args[4]);
+        Level log_level = Level.INFO;
+        if(args.length == 6) {
+            log_level = Level.parse(args[5].toUpperCase());
+        }
+        Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        LOGGER.setLevel(log_level);
+
+        int producer = -1;
+        if(role.equals("producer")) {
+            producer = 0;
+        }
+        else if(role.startsWith("producer-")) {
+            producer = Integer.parseInt(role.substring("producer-".length()));
+            if(producer < 0 || producer >= Integer.MAX_VALUE / PRODUCER_RANGE + 1) {
+                throw new IllegalArgumentException("producer number must be in range [0,"
+                                                   + (Integer.MAX_VALUE / PRODUCER_RANGE + 1) + ")");
+            }
+        }
+        if(producer >= 0 && (long) batch_size * num_batches > PRODUCER_RANGE) {
+            throw new IllegalArgumentException("a producer puts at most " + PRODUCER_RANGE + " items");
+        }
+
+        try(MappedBoundedBuffer buffer = new MappedBoundedBuffer(Paths.get(file), buf_size)) {
+            int[] batch = new int[batch_size];
+            int moved = 0;
+            long start = System.nanoTime();
+            if(producer >= 0) {
+                int next = producer * PRODUCER_RANGE;
+                for(int i = 0; i < num_batches; ++i) {
+                    for(int j = 0; j < batch_size; ++j) {
+                        batch[j] = next++;
+                    }
+                    buffer.put(batch);
+                    moved += batch_size;
+                }
+            }
+            else if(role.equals("consumer")) {
+                // next[k]: least item producer k can put next
+                int[] next = new int[Integer.MAX_VALUE / PRODUCER_RANGE + 1];
+                for(int k = 0; k < next.length; ++k) {
+                    next[k] = k * PRODUCER_RANGE;
+                }
+                for(int i = 0; i < num_batches; ++i) {
+                    buffer.take(batch, 0, batch_size);
+                    for(int j = 0; j < batch_size; ++j) {
+                        if(batch[j] < 0) {
+                            throw new IllegalStateException("read " + batch[j] + ", which no producer puts");
+                        }
+                        int k = batch[j] / PRODUCER_RANGE;
+                        if(batch[j] < next[k]) {
+                            throw new IllegalStateException("expected at least " + next[k]
+                                                            + " from producer " + k + " but read " + batch[j]);
+                        }
+                        next[k] = batch[j] + 1;
+                    }
+                    moved += batch_size;
+                }
+            }
+            else {
+                throw new IllegalArgumentException("role must be producer, producer-k or consumer");
+            }
+            long elapsed = System.nanoTime() - start;
+            LOGGER.info(String.format("%s moved %d items in order: %.0f items/sec",
+                                      role, moved, moved / (elapsed / 1e9)));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package boundedbuffer;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/*
+* A monitor which holds a shared fixed-size buffer of references
+* to *E*s.
+* producers must wait if the buffer is full and
+* consumers must wait if the buffer is empty
+*
+* Slots are cleared as their items are taken, so the buffer
+* never keeps a consumed object alive.
+*
+* The buffer is a real E[] (made from *type*), so put, take and
+* their async versions only accept and hand out E[]s.
+*/
+public class ObjectBoundedBufferMonitor<E> extends AbstractBoundedBufferMonitor<E[]> {
+    private final Class<E> type;
+
+    /*
+    * Create a buffer size holding *type*s
+    */
+    public ObjectBoundedBufferMonitor(Class<E> type, int buf_size) {
+        this(type, buf_size, Wakeups.TARGETED, Admission.BARGING);
+    }
+
+    /*
+    * Create a buffer size holding *type*s which wakes waiters as
+    * described by *wakeups* and admits them as described by *admission*
+    */
+    public ObjectBoundedBufferMonitor(Class<E> type, int buf_size,
+                                      Wakeups wakeups, Admission admission) {
+        super(newArray(type, buf_size), wakeups, admission);
+        this.type = type;
+    }
+
+    /*
+    * Add all of *items* to the buffer
+    */
+    public void put(E[] items) {
+        put(items, 0, items.length);
+    }
+
+    /*
+     * Take num things off the buffer
+     */
+    public E[] take(int num) {
+        E[] items = newArray(type, num);
+        take(items, 0, num);
+        return items;
+    }
+
+    @Override
+    protected void forget(E[] shared_buffer, int from, int len) {
+        Arrays.fill(shared_buffer, from, from + len, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <E> E[] newArray(Class<E> type, int length) {
+        if(type.isPrimitive()) {
+            throw new IllegalArgumentException("type must be a reference type, not " + type);
+        }
+        return (E[]) Array.newInstance(type, length);
+    }
+}
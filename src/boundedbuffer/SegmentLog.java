@@ -0,0 +1,404 @@
+package boundedbuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/*
+ * An append-only log of the items put on a buffer, kept in a directory
+ * of memory-mapped segment files, plus a checkpoint of how many items
+ * have been taken.
+ *
+ * Every item ever put has a sequence number (0, 1, 2, ...). A put of
+ * *len* items is one record:
+ *   0    len
+ *   4    CRC32C of bytes 8...
+ *   8    sequence number of the first item
+ *   16   len ints
+ * Records are appended back to back and never span segments. A
+ * segment that is full is left zeroed past its last record, and a new
+ * segment named after the sequence number of its first item is
+ * started. The checkpoint file holds the number of items taken so far,
+ * and segments whose every item was taken (as far as a forced
+ * checkpoint knows) are deleted.
+ *
+ * Appending only writes to the mappings. sync() makes everything
+ * appended so far durable by forcing the segments it went into and
+ * then the checkpoint. With *group_commit*, threads calling sync() at
+ * once share forces: one of them forces on behalf of everybody who
+ * has appended so far while the rest wait for it. Without it every
+ * sync() does its own force.
+ *
+ * Appending only writes past the last record, into zeroed space, so
+ * a crash at any point leaves either a whole record or one whose CRC
+ * (or first sequence number) doesn't check out. recover() keeps
+ * everything up to the first bad record, which includes every record
+ * a sync() has returned for. The only writes in place are to the
+ * checkpoint, and recover()'s: it cuts the log at a bad record by
+ * zeroing its length, and winds the checkpoint back if it got to disk
+ * ahead of records that didn't, so sequence numbers carry on from the
+ * last good record without a gap. Both are forced before anything is
+ * appended.
+ *
+ * append() and taken() must not be called at the same time as each
+ * other or recover(), sync() may be called from any thread.
+ */
+class SegmentLog implements Closeable {
+    private static final int RECORD_HEADER = 16;
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final Path dir;
+    private final int segment_size;
+    private final boolean group_commit;
+    private final MappedByteBuffer checkpoint;
+    // Guards segments, put_seq, take_seq and unforced
+    private final ReentrantLock state_lock = new ReentrantLock();
+    // oldest first, the last one is being appended to
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    // Segments appended to since they were last forced
+    private final List<Segment> unforced = new ArrayList<>();
+    private long put_seq = 0, take_seq = 0;
+    // Serializes forces, and lets sync() callers wait on one
+    private final ReentrantLock commit_lock = new ReentrantLock();
+    private final Condition committed = commit_lock.newCondition();
+    private boolean forcing = false;
+    // Everything before this sequence number is on disk
+    private volatile long durable_seq = 0;
+    private final CRC32C crc = new CRC32C();
+    private long forces = 0;
+
+    /*
+     * Open (creating it if need be) the log in *dir*. A record holds at
+     * most segment_size - 16 bytes of items.
+     */
+    SegmentLog(Path _dir, int _segment_size, boolean _group_commit) throws IOException {
+        if(_segment_size <= RECORD_HEADER || _segment_size % 4 != 0) {
+            throw new IllegalArgumentException("segment_size must be a multiple of 4 above " + RECORD_HEADER);
+        }
+        dir = _dir;
+        segment_size = _segment_size;
+        group_commit = _group_commit;
+        Files.createDirectories(dir);
+        checkpoint = map(dir.resolve(CHECKPOINT), Long.BYTES);
+    }
+
+    /*
+     * Read back the items that were put but not taken, oldest first,
+     * and get ready to append after them.
+     *
+     * A torn record at the end of the log is cut off (with anything
+     * after it) so later appends don't end up behind it, and a
+     * checkpoint past the end of what is left is wound back to it.
+     */
+    int[] recover() throws IOException {
+        take_seq = checkpoint.getLong(0);
+        List<Path> files = new ArrayList<>();
+        try(DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "segment-*.log")) {
+            stream.forEach(files::add);
+        }
+        // Names are zero padded, so this is sequence order
+        files.sort(null);
+
+        IntList live = new IntList();
+        long next_seq = -1;
+        boolean torn = false;
+        for(Path file : files) {
+            if(torn) {
+                Files.delete(file);
+                continue;
+            }
+            Segment segment = new Segment(file, map(file, segment_size));
+            int pos = 0;
+            while(pos + RECORD_HEADER <= segment_size) {
+                int len = segment.map.getInt(pos);
+                if(len == 0) {
+                    // Clean end of the segment
+                    break;
+                }
+                long first_seq = segment.map.getLong(pos + 8);
+                if(len < 0 || len > (segment_size - pos - RECORD_HEADER) / 4
+                   || (next_seq >= 0 && first_seq != next_seq)
+                   || segment.map.getInt(pos + 4) != checksum(segment.map, pos, len)) {
+                    // Cut the log here and make it stick
+                    segment.map.putInt(pos, 0);
+                    segment.map.force();
+                    torn = true;
+                    break;
+                }
+                for(int i = 0; i < len; ++i) {
+                    if(first_seq + i >= take_seq) {
+                        live.add(segment.items.get(pos / 4 + RECORD_HEADER / 4 + i));
+                    }
+                }
+                next_seq = first_seq + len;
+                pos += RECORD_HEADER + 4 * len;
+            }
+            segment.end = pos;
+            segment.last_seq = next_seq;
+            segments.addLast(segment);
+        }
+        if(next_seq < 0) {
+            // No records left, carry on from what was taken
+            next_seq = take_seq;
+        }
+        else if(take_seq > next_seq) {
+            // The checkpoint hit the disk ahead of the records it
+            // counts when we crashed. Numbering from take_seq would
+            // leave a gap that the next recover() takes for a torn
+            // record, so count the lost items as never put instead.
+            take_seq = next_seq;
+            checkpoint.putLong(0, take_seq);
+            checkpoint.force();
+        }
+        put_seq = next_seq;
+        durable_seq = put_seq;
+        // A segment with no records would have the same name as
+        // the one we are about to start
+        Segment last = segments.peekLast();
+        if(last != null && last.end == 0) {
+            segments.pollLast();
+            Files.delete(last.file);
+        }
+        // Start afresh rather than appending to a segment
+        // whose tail we didn't write
+        roll();
+        return live.toArray();
+    }
+
+    /*
+     * Log the put of src[off], ..., src[off+len-1]
+     */
+    void append(int[] src, int off, int len) throws IOException {
+        if(len == 0) {
+            return;
+        }
+        if(len > (segment_size - RECORD_HEADER) / 4) {
+            throw new IllegalArgumentException("a put of " + len + " items does not fit in a segment");
+        }
+        state_lock.lock();
+        try {
+            Segment segment = segments.peekLast();
+            if(segment.end + RECORD_HEADER + 4 * len > segment_size) {
+                segment = roll();
+            }
+            int pos = segment.end;
+            segment.items.put(pos / 4 + RECORD_HEADER / 4, src, off, len);
+            segment.map.putLong(pos + 8, put_seq);
+            segment.map.putInt(pos, len);
+            segment.map.putInt(pos + 4, checksum(segment.map, pos, len));
+            segment.end = pos + RECORD_HEADER + 4 * len;
+            put_seq += len;
+            segment.last_seq = put_seq;
+            if(!segment.dirty) {
+                segment.dirty = true;
+                unforced.add(segment);
+            }
+        }
+        finally {
+            state_lock.unlock();
+        }
+    }
+
+    /*
+     * Checkpoint that *len* more items have been taken. Made durable
+     * by the next sync(), until then a crash gives them back.
+     */
+    void taken(int len) {
+        state_lock.lock();
+        try {
+            take_seq += len;
+            checkpoint.putLong(0, take_seq);
+        }
+        finally {
+            state_lock.unlock();
+        }
+    }
+
+    /*
+     * Sequence number after the last item appended so far
+     */
+    long appended() {
+        state_lock.lock();
+        try {
+            return put_seq;
+        }
+        finally {
+            state_lock.unlock();
+        }
+    }
+
+    /*
+     * Return once every item before *seq* is on disk
+     */
+    void sync(long seq) throws IOException {
+        commit_lock.lock();
+        try {
+            if(!group_commit) {
+                durable_seq = Math.max(durable_seq, force());
+                return;
+            }
+            while(durable_seq < seq) {
+                if(forcing) {
+                    // Somebody is forcing already, what they force may
+                    // cover us, and if not we lead the next one
+                    committed.awaitUninterruptibly();
+                    continue;
+                }
+                forcing = true;
+                commit_lock.unlock();
+                long forced = -1;
+                try {
+                    forced = force();
+                }
+                finally {
+                    commit_lock.lock();
+                    forcing = false;
+                    durable_seq = Math.max(durable_seq, forced);
+                    committed.signalAll();
+                }
+            }
+        }
+        finally {
+            commit_lock.unlock();
+        }
+    }
+
+    /*
+     * Number of forces sync() has done so far
+     */
+    long forces() {
+        commit_lock.lock();
+        try {
+            return forces;
+        }
+        finally {
+            commit_lock.unlock();
+        }
+    }
+
+    public void close() throws IOException {
+        sync(appended());
+    }
+
+    /*
+     * Force everything appended so far, then the checkpoint, then drop
+     * the segments the checkpoint has fully consumed. Returns the
+     * sequence number everything before which is now on disk.
+     */
+    private long force() throws IOException {
+        long target, consumed;
+        List<Segment> to_force;
+        state_lock.lock();
+        try {
+            target = put_seq;
+            consumed = take_seq;
+            to_force = new ArrayList<>(unforced);
+            unforced.clear();
+            for(Segment segment : to_force) {
+                segment.dirty = false;
+            }
+        }
+        finally {
+            state_lock.unlock();
+        }
+        // An append racing with us may land in a segment we are
+        // forcing, which is harmless: it is counted next time
+        for(Segment segment : to_force) {
+            segment.map.force();
+        }
+        checkpoint.force();
+        ++forces;
+
+        List<Segment> consumed_segments = new ArrayList<>();
+        state_lock.lock();
+        try {
+            while(segments.size() > 1 && segments.peekFirst().last_seq <= consumed) {
+                consumed_segments.add(segments.pollFirst());
+            }
+        }
+        finally {
+            state_lock.unlock();
+        }
+        for(Segment segment : consumed_segments) {
+            Files.deleteIfExists(segment.file);
+        }
+        return target;
+    }
+
+    /*
+     * Start a new segment for items from put_seq on
+     */
+    private Segment roll() throws IOException {
+        Path file = dir.resolve(String.format("segment-%020d.log", put_seq));
+        Segment segment = new Segment(file, map(file, segment_size));
+        segment.last_seq = put_seq;
+        segments.addLast(segment);
+        return segment;
+    }
+
+    private int checksum(MappedByteBuffer map, int pos, int len) {
+        crc.reset();
+        crc.update(map.slice(pos + 8, 8 + 4 * len));
+        return (int) crc.getValue();
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                                                   StandardOpenOption.WRITE,
+                                                   StandardOpenOption.CREATE)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            mapped.order(ByteOrder.nativeOrder());
+            return mapped;
+        }
+    }
+
+    private static class Segment {
+        final Path file;
+        final MappedByteBuffer map;
+        final IntBuffer items;
+        // Offset to append the next record at
+        int end = 0;
+        // Sequence number after the segment's last item
+        long last_seq;
+        boolean dirty = false;
+
+        Segment(Path _file, MappedByteBuffer _map) {
+            file = _file;
+            map = _map;
+            items = _map.asIntBuffer();
+        }
+    }
+
+    /*
+     * Growable int[], so recovering doesn't box every item
+     */
+    private static class IntList {
+        private int[] items = new int[16];
+        private int size = 0;
+
+        void add(int item) {
+            if(size == items.length) {
+                items = Arrays.copyOf(items, 2 * size);
+            }
+            items[size++] = item;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(items, size);
+        }
+    }
+}
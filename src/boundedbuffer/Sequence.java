@@ -0,0 +1,55 @@
+package boundedbuffer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/*
+ * A volatile long counter which sits alone on its cache line(s),
+ * so that producers bumping one sequence do not invalidate the
+ * line holding a sequence the consumers are bumping (false sharing).
+ *
+ * The padding lives in super/sub-classes because the JVM is free
+ * to reorder fields within a single class but lays out a superclass's
+ * fields before its subclass's.
+ */
+class Sequence extends SequenceValue {
+    protected long p9, p10, p11, p12, p13, p14, p15;
+
+    private static final VarHandle VALUE;
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(SequenceValue.class, "value", long.class);
+        }
+        catch(ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    public Sequence(long initial_value) {
+        value = initial_value;
+    }
+
+    public long get() {
+        return value;
+    }
+
+    public void set(long new_value) {
+        value = new_value;
+    }
+
+    public boolean compareAndSet(long expected, long new_value) {
+        return VALUE.compareAndSet(this, expected, new_value);
+    }
+
+    public long getAndAdd(long delta) {
+        return (long) VALUE.getAndAdd(this, delta);
+    }
+}
+
+class SequencePadding {
+    protected long p1, p2, p3, p4, p5, p6, p7;
+}
+
+class SequenceValue extends SequencePadding {
+    protected volatile long value;
+}
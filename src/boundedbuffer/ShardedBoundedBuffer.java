@@ -0,0 +1,294 @@
+package boundedbuffer;
+
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * A bounded buffer split into independent shards, each with its own
+ * lock, so producers and consumers on different shards never contend.
+ *
+ * Each thread has a home shard picked from its id. A put goes to the
+ * home shard if the whole batch fits there, otherwise to any shard it
+ * fits in. A take is served from the home shard if it has enough items,
+ * otherwise it steals the whole batch from another shard.
+ *
+ * A batch no single shard can handle (e.g. a take(num) when every
+ * shard holds fewer than num items) is handled by locking every shard,
+ * in index order so two such callers can't deadlock, and splitting the
+ * batch across them. So the buffer still holds buf_size items in total
+ * and take(num) still waits until num items are on the buffer. Items
+ * are only ordered within a shard.
+ */
+public class ShardedBoundedBuffer implements BoundedBuffer {
+    private static final int SPIN_TRIES = 64, YIELD_TRIES = 16;
+
+    private final Shard[] shards;
+    private final int buf_size;
+    private final WaitStrategy space_on_buffer = new WaitStrategy(SPIN_TRIES, YIELD_TRIES),
+        items_on_buffer = new WaitStrategy(SPIN_TRIES, YIELD_TRIES);
+
+    /*
+     * Create a buffer of total size *buf_size* split (as evenly as
+     * possible) into *num_shards* shards
+     */
+    public ShardedBoundedBuffer(int buf_size, int num_shards) {
+        if(buf_size <= 0 || num_shards <= 0) {
+            throw new IllegalArgumentException("buf_size and num_shards must be positive");
+        }
+        num_shards = Math.min(num_shards, buf_size);
+        this.buf_size = buf_size;
+        shards = new Shard[num_shards];
+        for(int i = 0; i < num_shards; ++i) {
+            shards[i] = new Shard(buf_size / num_shards + (i < buf_size % num_shards ? 1 : 0));
+        }
+    }
+
+    public int numShards() {
+        return shards.length;
+    }
+
+    /*
+     * Add src[off], ..., src[off+len-1] to the buffer
+     *
+     * A batch bigger than the whole buffer is rejected
+     * rather than waiting forever
+     */
+    public void put(int[] src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        checkBatchSize(len);
+        int home = homeShard();
+        while(true) {
+            for(int i = 0; i < shards.length; ++i) {
+                if(shards[(home + i) % shards.length].tryPut(src, off, len)) {
+                    items_on_buffer.wakeAll();
+                    return;
+                }
+            }
+            if(freeSpace() >= len && spreadPut(src, off, len)) {
+                items_on_buffer.wakeAll();
+                return;
+            }
+            space_on_buffer.awaitUntil(() -> freeSpace() >= len);
+        }
+    }
+
+    /*
+     * Take len things off the buffer into dst[off], ..., dst[off+len-1]
+     */
+    public void take(int[] dst, int off, int len) {
+        Objects.checkFromIndexSize(off, len, dst.length);
+        checkBatchSize(len);
+        int home = homeShard();
+        while(true) {
+            for(int i = 0; i < shards.length; ++i) {
+                if(shards[(home + i) % shards.length].tryTake(dst, off, len)) {
+                    space_on_buffer.wakeAll();
+                    return;
+                }
+            }
+            if(itemCount() >= len && gatherTake(dst, off, len)) {
+                space_on_buffer.wakeAll();
+                return;
+            }
+            items_on_buffer.awaitUntil(() -> itemCount() >= len);
+        }
+    }
+
+    /*
+     * Take up to max_len things off the buffer into dst[off], ...
+     * without waiting, home shard first
+     */
+    public int drainTo(int[] dst, int off, int max_len) {
+        Objects.checkFromIndexSize(off, max_len, dst.length);
+        int home = homeShard(), taken = 0;
+        for(int i = 0; i < shards.length && taken < max_len; ++i) {
+            Shard shard = shards[(home + i) % shards.length];
+            shard.lock.lock();
+            try {
+                int num = Math.min(max_len - taken, shard.count);
+                shard.copyOut(dst, off + taken, num);
+                taken += num;
+            }
+            finally {
+                shard.lock.unlock();
+            }
+        }
+        if(taken > 0) {
+            space_on_buffer.wakeAll();
+        }
+        return taken;
+    }
+
+    /*
+     * Lock every shard and, if there is room for the whole batch,
+     * split it across the shards
+     */
+    private boolean spreadPut(int[] src, int off, int len) {
+        lockAll();
+        try {
+            if(freeSpace() < len) {
+                return false;
+            }
+            int done = 0;
+            for(int i = 0; done < len; ++i) {
+                int num = Math.min(len - done, shards[i].buf_size - shards[i].count);
+                shards[i].copyIn(src, off + done, num);
+                done += num;
+            }
+            return true;
+        }
+        finally {
+            unlockAll();
+        }
+    }
+
+    /*
+     * Lock every shard and, if there are enough items between them,
+     * take the batch from across the shards
+     */
+    private boolean gatherTake(int[] dst, int off, int len) {
+        lockAll();
+        try {
+            if(itemCount() < len) {
+                return false;
+            }
+            int done = 0;
+            for(int i = 0; done < len; ++i) {
+                int num = Math.min(len - done, shards[i].count);
+                shards[i].copyOut(dst, off + done, num);
+                done += num;
+            }
+            return true;
+        }
+        finally {
+            unlockAll();
+        }
+    }
+
+    // Always lock in index order so gathers/spreads can't deadlock
+    private void lockAll() {
+        for(Shard shard : shards) {
+            shard.lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for(int i = shards.length - 1; i >= 0; --i) {
+            shards[i].lock.unlock();
+        }
+    }
+
+    /*
+     * Snapshot of the items on the buffer, only exact while
+     * holding every shard's lock
+     */
+    private int itemCount() {
+        int total = 0;
+        for(Shard shard : shards) {
+            total += shard.count;
+        }
+        return total;
+    }
+
+    private int freeSpace() {
+        return buf_size - itemCount();
+    }
+
+    /*
+     * Spread threads over the shards by (mixed) thread id
+     */
+    private int homeShard() {
+        long mixed = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(mixed >>> 32, (long) shards.length);
+    }
+
+    private void checkBatchSize(int n) {
+        if(n < 0 || n > buf_size) {
+            throw new IllegalArgumentException("batch size must be in range [0," + buf_size + "]");
+        }
+    }
+
+    /*
+     * One independent ring. count is only written holding lock
+     * but may be read without it as a hint.
+     *
+     * Padded like Sequence, in superclasses so the JVM can't reorder
+     * it, to keep neighbouring shards' hot fields off our cache line.
+     */
+    private static class Shard extends ShardFields {
+        protected long p9, p10, p11, p12, p13, p14, p15;
+
+        Shard(int _buf_size) {
+            super(_buf_size);
+        }
+
+        boolean tryPut(int[] src, int off, int len) {
+            if(buf_size - count < len) {
+                return false;
+            }
+            lock.lock();
+            try {
+                if(buf_size - count < len) {
+                    return false;
+                }
+                copyIn(src, off, len);
+                return true;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        boolean tryTake(int[] dst, int off, int len) {
+            if(count < len) {
+                return false;
+            }
+            lock.lock();
+            try {
+                if(count < len) {
+                    return false;
+                }
+                copyOut(dst, off, len);
+                return true;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        // Caller holds lock and knows *len* items fit
+        void copyIn(int[] src, int off, int len) {
+            int first = Math.min(len, buf_size - back);
+            System.arraycopy(src, off, shared_buffer, back, first);
+            System.arraycopy(src, off + first, shared_buffer, 0, len - first);
+            back = (back + len) % buf_size;
+            count += len;
+        }
+
+        // Caller holds lock and knows there are *len* items
+        void copyOut(int[] dst, int off, int len) {
+            int first = Math.min(len, buf_size - front);
+            System.arraycopy(shared_buffer, front, dst, off, first);
+            System.arraycopy(shared_buffer, 0, dst, off + first, len - first);
+            front = (front + len) % buf_size;
+            count -= len;
+        }
+    }
+
+    private static class ShardPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class ShardFields extends ShardPadding {
+        final ReentrantLock lock = new ReentrantLock();
+        final int[] shared_buffer;
+        final int buf_size;
+        int front = 0, back = 0;
+        volatile int count = 0;
+
+        ShardFields(int _buf_size) {
+            buf_size = _buf_size;
+            shared_buffer = new int[buf_size];
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package boundedbuffer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/*
+ * Spin, then yield, then park until some condition holds.
+ *
+ * Waiting threads only park (and only cost the waker an unpark)
+ * once spinning and yielding have failed, so a caller that only
+ * has to wait a moment never touches the scheduler.
+ */
+class WaitStrategy {
+    private final int spin_tries, yield_tries;
+    private final ConcurrentLinkedQueue<Thread> parked = new ConcurrentLinkedQueue<>();
+
+    public WaitStrategy(int _spin_tries, int _yield_tries) {
+        if(_spin_tries < 0 || _yield_tries < 0) {
+            throw new IllegalArgumentException("spin and yield tries must be non-negative");
+        }
+        spin_tries = _spin_tries;
+        yield_tries = _yield_tries;
+    }
+
+    /*
+     * Return once *ready* is true. Whoever makes *ready* true
+     * must call wakeAll() afterwards.
+     */
+    public void awaitUntil(BooleanSupplier ready) {
+        for(int i = 0; !ready.getAsBoolean(); ++i) {
+            if(i < spin_tries) {
+                Thread.onSpinWait();
+            }
+            else if(i < spin_tries + yield_tries) {
+                Thread.yield();
+            }
+            else {
+                // Announce ourselves before the final check so that
+                // a waker who changes the state after our check is
+                // guaranteed to see us and unpark us
+                Thread me = Thread.currentThread();
+                parked.add(me);
+                try {
+                    if(!ready.getAsBoolean()) {
+                        LockSupport.park(this);
+                    }
+                }
+                finally {
+                    parked.remove(me);
+                }
+            }
+        }
+    }
+
+    /*
+     * Wake any parked threads so they re-check their conditions.
+     * Nearly free when nobody is parked.
+     */
+    public void wakeAll() {
+        if(parked.isEmpty()) {
+            return;
+        }
+        for(Thread t : parked) {
+            LockSupport.unpark(t);
+        }
+    }
+}
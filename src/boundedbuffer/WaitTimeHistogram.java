@@ -0,0 +1,65 @@
+package boundedbuffer;
+
+/*
+ * A log-linear histogram of wait times in nanoseconds.
+ *
+ * Values below 8 get their own bucket, above that each power of
+ * two is split into 8 buckets, so a percentile is accurate to
+ * within 12.5%. Recording never allocates.
+ *
+ * Not thread safe, callers must synchronize.
+ */
+class WaitTimeHistogram {
+    private static final int SUB_BUCKET_BITS = 3,
+        SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final long[] counts = new long[SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS];
+    private long total = 0;
+
+    public void record(long nanos) {
+        counts[indexOf(Math.max(0, nanos))]++;
+        total++;
+    }
+
+    public long count() {
+        return total;
+    }
+
+    /*
+     * Smallest bucket bound which at least *percentile*% of the
+     * recorded values fall under, or -1 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        if(total == 0) {
+            return -1;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for(int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if(seen >= target) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(counts.length - 1);
+    }
+
+    private static int indexOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value),
+            shift = exponent - SUB_BUCKET_BITS;
+        int sub_bucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + sub_bucket;
+    }
+
+    private static long upperBoundOf(int index) {
+        if(index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS,
+            sub_bucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub_bucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,189 @@
+package boundedbuffer;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntSupplier;
+
+/*
+ * Threads waiting for some amount of a resource (items on the buffer,
+ * space on the buffer), filed by how much they want.
+ *
+ * Each waiter sleeps on its own condition. When more of the resource
+ * shows up, wake() signals only the waiters that the new amount can
+ * actually satisfy instead of waking everybody to re-check.
+ *
+ * Without *fifo*, waiters are woken smallest request first and new
+ * arrivals may barge past them. With *fifo*, waiters are woken in
+ * arrival order and the one at the head has everything that shows
+ * up reserved for it, so a big request can't be starved by a stream
+ * of small ones.
+ *
+ * Waiters need not be threads: a Waiter subclass can override
+ * signal() to, say, complete a future instead. Whoever handles the
+ * signal must call claimed() and then either use its share or add()
+ * the waiter back. Such waiters may be signalled by a blocked thread
+ * passing on its turn, so *lost_race* is run after that happens to
+ * let them be handled before the thread goes back to sleep.
+ *
+ * Every method must be called while holding *lock*.
+ */
+class WaiterRegistry {
+    private final ReentrantLock lock;
+    private final boolean fifo;
+    private final Runnable lost_race;
+    // waiters by size, used without fifo
+    private final TreeMap<Integer, ArrayDeque<Waiter>> by_size = new TreeMap<>();
+    // waiters by arrival, used with fifo
+    private final ArrayDeque<Waiter> in_order = new ArrayDeque<>();
+    // Sum of the sizes of waiters that have been signalled but
+    // have not yet woken up to claim their share
+    private int pending = 0;
+
+    public WaiterRegistry(final ReentrantLock _lock, final boolean _fifo, final Runnable _lost_race) {
+        lock = _lock;
+        fifo = _fifo;
+        lost_race = _lost_race;
+    }
+
+    /*
+     * How much of *available* a newly arrived thread may take
+     * without waiting in line
+     */
+    public int unreserved(int available) {
+        if(!fifo) {
+            return available;
+        }
+        return in_order.isEmpty() ? available - pending : 0;
+    }
+
+    /*
+     * Wait until available.getAsInt() >= size.
+     *
+     * We are only ever woken by wake() having set aside
+     * *size* for us, but without fifo another thread may
+     * barge in and take it before we run, so we re-check
+     * and pass the turn on if we lost out.
+     */
+    public void awaitAtLeast(int size, IntSupplier available) {
+        Waiter w = new Waiter(size, lock.newCondition());
+        add(w, false);
+        while(true) {
+            while(!w.signalled) {
+                try {
+                    w.turn.await();
+                }
+                catch(InterruptedException e) { }
+            }
+            w.signalled = false;
+            claimed(size);
+            if(available.getAsInt() >= size) {
+                return;
+            }
+            // Someone barged in, but whatever is left may still
+            // satisfy somebody else
+            add(w, true);
+            wake(available.getAsInt());
+            lost_race.run();
+        }
+    }
+
+    /*
+     * File *w* to be signalled once its request can be satisfied.
+     * *retry* means it was signalled but lost out, so with fifo it
+     * goes back to the head of the line.
+     */
+    public void add(Waiter w, boolean retry) {
+        if(!fifo) {
+            by_size.computeIfAbsent(w.size, k -> new ArrayDeque<>()).addLast(w);
+        }
+        else if(retry) {
+            in_order.addFirst(w);
+        }
+        else {
+            in_order.addLast(w);
+        }
+    }
+
+    /*
+     * Take *w* out of line if it is still waiting to be signalled,
+     * returning whether it was. Whoever removes a waiter should wake()
+     * again, since with fifo it may have been holding others up.
+     */
+    public boolean remove(Waiter w) {
+        if(fifo) {
+            return in_order.remove(w);
+        }
+        ArrayDeque<Waiter> waiters = by_size.get(w.size);
+        if(waiters == null || !waiters.remove(w)) {
+            return false;
+        }
+        if(waiters.isEmpty()) {
+            by_size.remove(w.size);
+        }
+        return true;
+    }
+
+    /*
+     * A signalled waiter of *size* has woken up to claim its share
+     */
+    public void claimed(int size) {
+        pending -= size;
+    }
+
+    /*
+     * There is now *available* of the resource. Signal the waiters it
+     * can satisfy, not counting what earlier wake()s already set aside
+     * for waiters that have not run yet.
+     */
+    public void wake(int available) {
+        int budget = available - pending;
+        if(fifo) {
+            // Stop at the first waiter that doesn't fit: whatever
+            // is left stays reserved for them
+            while(!in_order.isEmpty() && in_order.peekFirst().size <= budget) {
+                budget -= signal(in_order.pollFirst());
+            }
+            return;
+        }
+        while(!by_size.isEmpty()) {
+            Map.Entry<Integer, ArrayDeque<Waiter>> smallest = by_size.firstEntry();
+            if(smallest.getKey() > budget) {
+                return;
+            }
+            ArrayDeque<Waiter> waiters = smallest.getValue();
+            Waiter w = waiters.pollFirst();
+            if(waiters.isEmpty()) {
+                by_size.pollFirstEntry();
+            }
+            budget -= signal(w);
+        }
+    }
+
+    private int signal(Waiter w) {
+        pending += w.size;
+        w.signal();
+        return w.size;
+    }
+
+    static class Waiter {
+        final int size;
+        private final Condition turn;
+        private boolean signalled = false;
+
+        Waiter(int _size, Condition _turn) {
+            size = _size;
+            turn = _turn;
+        }
+
+        /*
+         * *size* has been set aside for us
+         */
+        void signal() {
+            signalled = true;
+            turn.signal();
+        }
+    }
+}
@@ -14,8 +14,10 @@ public class H2OMonitor {
     private int 
         num_H = 0,
         num_H2 = 0,
-        num_H_bonded = 0,
-        num_H2O_bonded = 0;
+        num_H_bonded = 0;
+    // Only written holding lock, volatile so get_num_H2O()
+    // can read it without
+    private volatile int num_H2O_bonded = 0;
 
     /**
      * Call to send hydrogen through barrier
@@ -24,24 +26,43 @@ public class H2OMonitor {
      * oxygen.
      */
     public void enter_hydrogen() {
+        enter_hydrogen(1);
+    }
+
+    /**
+     * Call to send *count* hydrogen through barrier at once
+     *
+     * Terminates once all of them have bonded, taking the lock
+     * once for the whole batch rather than once per atom.
+     */
+    public void enter_hydrogen(int count) {
+        if(count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
         lock.lock();
         try {
-            // new H, join to make H2 if possible
-            num_H++;
-            if(num_H == 2) {
-                num_H -= 2;
-                num_H2++;
+            // new H, join to make H2 where possible
+            num_H += count;
+            if(num_H >= 2) {
+                num_H2 += num_H / 2;
+                num_H %= 2;
                 available_H2.signal();
             }
-            // Wait until bonded with HO
-            while(num_H_bonded < 1) {
-                try {
-                    H_bonded.await();
-                } catch(InterruptedException e) {}
-            }
-            num_H_bonded--;
-            if(num_H_bonded > 0) {
-                H_bonded.signal();
+            // Wait until all our H are bonded with HO, taking
+            // bonds as they come
+            int unbonded = count;
+            while(unbonded > 0) {
+                while(num_H_bonded < 1) {
+                    try {
+                        H_bonded.await();
+                    } catch(InterruptedException e) {}
+                }
+                int taken = Math.min(unbonded, num_H_bonded);
+                num_H_bonded -= taken;
+                unbonded -= taken;
+                if(num_H_bonded > 0) {
+                    H_bonded.signal();
+                }
             }
         }
         finally {
@@ -57,19 +78,43 @@ public class H2OMonitor {
      * pass through the barrier.
      */
     public void enter_oxygen() {
+        enter_oxygen(1);
+    }
+
+    /**
+     * Call to send *count* oxygen through barrier at once
+     *
+     * Terminates once each of them has bonded with two hydrogen,
+     * taking the lock once for the whole batch rather than once
+     * per atom.
+     */
+    public void enter_oxygen(int count) {
+        if(count <= 0) {
+            throw new IllegalArgumentException("count must be positive");
+        }
         lock.lock();
         try {
-            // Wait for H2 to pair with
-            while(num_H2 < 1) {
-                try {
-                    available_H2.await();
-                } catch(InterruptedException e) {}
+            int unbonded = count;
+            while(unbonded > 0) {
+                // Wait for H2 to pair with
+                while(num_H2 < 1) {
+                    try {
+                        available_H2.await();
+                    } catch(InterruptedException e) {}
+                }
+                // Use as many H2 as we can and bond
+                int bonded = Math.min(unbonded, num_H2);
+                num_H2 -= bonded;
+                unbonded -= bonded;
+                num_H_bonded += 2 * bonded;
+                num_H2O_bonded += bonded;
+                H_bonded.signal();
+                // A hydrogen batch can make many H2 at once,
+                // pass on what's left
+                if(num_H2 > 0) {
+                    available_H2.signal();
+                }
             }
-            // Use the H2 and bond
-            num_H2--;
-            num_H_bonded += 2;
-            num_H2O_bonded++;
-            H_bonded.signal();
         }
         finally {
             lock.unlock();
@@ -0,0 +1,220 @@
+package h2o;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The H2O barrier without a lock: H, O particles cannot pass through
+ * the barrier until they bond together to form an H2O.
+ *
+ * Who is waiting is one packed word, updated with CAS:
+ *   bits 0-20   lone hydrogens
+ *   bits 21-41  hydrogen pairs
+ *   bits 42-62  oxygens
+ * An arrival either completes a molecule with what is waiting (and
+ * takes those atoms out of the word) or adds itself. No molecule can
+ * be made from what is waiting, or the arrival that made it possible
+ * would have made it, so waiting atoms never need to look again. Each
+ * kind of waiter also sits in a queue, which is how whoever completes
+ * a molecule finds the threads to release.
+ *
+ * Hydrogens first try to pair up in an elimination array, away from
+ * the word: a hydrogen waits briefly in a random slot, and one that
+ * finds a hydrogen there takes it and carries both to the word as a
+ * pair, so two hydrogens make one CAS between them.
+ *
+ * A thread only parks once it is in the word, i.e. once there is
+ * nobody to bond with, and is unparked by whoever bonds it.
+ */
+public class LockFreeH2O {
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+    private static final int LONE_H = 0, H_PAIRS = BITS, OXYGENS = 2 * BITS;
+
+    // How long a hydrogen waits in an elimination slot for another,
+    // and how long a waiting thread spins before parking. On one
+    // processor nobody can release us while we spin, so we don't.
+    private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 64 : 0;
+
+    private final AtomicLong waiting = new AtomicLong();
+    private final ConcurrentLinkedQueue<Atom> lone_h = new ConcurrentLinkedQueue<>(),
+        h_pairs = new ConcurrentLinkedQueue<>(),
+        oxygens = new ConcurrentLinkedQueue<>();
+    private final AtomicReferenceArray<Atom> slots;
+    private final LongAdder num_H2O = new LongAdder();
+
+    public LockFreeH2O() {
+        slots = new AtomicReferenceArray<>(Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * Call to send hydrogen through barrier
+     *
+     * Terminates once can bond with another hydrogen and another
+     * oxygen.
+     */
+    public void enter_hydrogen() {
+        int i = ThreadLocalRandom.current().nextInt(slots.length());
+        Atom other = slots.get(i);
+        if(other != null && slots.compareAndSet(i, other, null)) {
+            // Paired up: carry both of us to the word
+            arrivePair(new Atom(other));
+            return;
+        }
+        Atom me = new Atom(null);
+        if(other == null && slots.compareAndSet(i, null, me)) {
+            for(int spins = 0; spins < SPINS && slots.get(i) == me; ++spins) {
+                Thread.onSpinWait();
+            }
+            if(slots.get(i) != me || !slots.compareAndSet(i, me, null)) {
+                // Another hydrogen took us, it arrives for both
+                me.await();
+                return;
+            }
+        }
+        arriveLoneHydrogen(me);
+    }
+
+    /**
+     * Call to send oxygen through barrier
+     *
+     * Terminates once can bond with two hydrogen, at which
+     * point those three atoms bond into a water molecule and
+     * pass through the barrier.
+     */
+    public void enter_oxygen() {
+        while(true) {
+            long state = waiting.get();
+            if(count(state, H_PAIRS) > 0) {
+                if(waiting.compareAndSet(state, state - (1L << H_PAIRS))) {
+                    bond(take(h_pairs));
+                    return;
+                }
+            }
+            else if(count(state, LONE_H) >= 2) {
+                if(waiting.compareAndSet(state, state - (2L << LONE_H))) {
+                    bond(take(lone_h), take(lone_h));
+                    return;
+                }
+            }
+            else if(waiting.compareAndSet(state, state + (1L << OXYGENS))) {
+                wait(oxygens, new Atom(null));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Number of molecules formed so far
+     */
+    public int get_num_H2O() {
+        return num_H2O.intValue();
+    }
+
+    private void arriveLoneHydrogen(Atom me) {
+        while(true) {
+            long state = waiting.get();
+            // A waiting oxygen means at most one lone hydrogen
+            // (and no pair) is waiting, or they'd have bonded
+            if(count(state, OXYGENS) > 0 && count(state, LONE_H) > 0) {
+                if(waiting.compareAndSet(state, state - (1L << OXYGENS) - (1L << LONE_H))) {
+                    bond(take(oxygens), take(lone_h));
+                    me.release();
+                    return;
+                }
+            }
+            else if(waiting.compareAndSet(state, state + (1L << LONE_H))) {
+                wait(lone_h, me);
+                return;
+            }
+        }
+    }
+
+    private void arrivePair(Atom pair) {
+        while(true) {
+            long state = waiting.get();
+            if(count(state, OXYGENS) > 0) {
+                if(waiting.compareAndSet(state, state - (1L << OXYGENS))) {
+                    bond(take(oxygens));
+                    pair.release();
+                    return;
+                }
+            }
+            else if(waiting.compareAndSet(state, state + (1L << H_PAIRS))) {
+                wait(h_pairs, pair);
+                return;
+            }
+        }
+    }
+
+    /*
+     * We counted ourselves into the word, now get in the queue
+     * and wait to be bonded
+     */
+    private void wait(ConcurrentLinkedQueue<Atom> queue, Atom atom) {
+        queue.add(atom);
+        atom.await();
+    }
+
+    /*
+     * Release the atoms that make a molecule with the caller
+     */
+    private void bond(Atom... atoms) {
+        for(Atom atom : atoms) {
+            atom.release();
+        }
+        num_H2O.increment();
+    }
+
+    /*
+     * Take a waiter we took out of the word off its queue. It may
+     * not have got into the queue yet, but will have soon.
+     */
+    private static Atom take(ConcurrentLinkedQueue<Atom> queue) {
+        Atom atom;
+        while((atom = queue.poll()) == null) {
+            Thread.yield();
+        }
+        return atom;
+    }
+
+    private static int count(long state, int shift) {
+        return (int) ((state >>> shift) & MASK);
+    }
+
+    /*
+     * A waiting thread, or a pair of hydrogen threads
+     * waiting together
+     */
+    private static class Atom {
+        final Thread thread = Thread.currentThread();
+        // the other hydrogen of a pair
+        final Atom partner;
+        volatile boolean released = false;
+
+        Atom(Atom _partner) {
+            partner = _partner;
+        }
+
+        void release() {
+            if(partner != null) {
+                partner.release();
+            }
+            released = true;
+            LockSupport.unpark(thread);
+        }
+
+        void await() {
+            for(int spins = 0; !released && spins < SPINS; ++spins) {
+                Thread.onSpinWait();
+            }
+            while(!released) {
+                LockSupport.park(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package h2o;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measure how fast groups form in a MoleculeMonitor, or (for 2H+1O)
+ * in an H2OMonitor or LockFreeH2O
+ */
+public class MoleculeBenchmark {
+    private static final int BATCH = 64;
+
+    // <recipe> is like 2H+1O or 6C+12H+6O (a missing count means 1).
+    // Each of the recipe's places gets <threads per place> threads, so
+    // 2H+1O with 4 threads per place runs 8 hydrogen and 4 oxygen
+    // threads. The threads of each kind share out the entries
+    // <num groups> groups need between them: giving each thread a
+    // fixed share could leave the last few threads of a kind waiting
+    // for partners that already finished. h2o-batch threads take up
+    // to BATCH entries of the budget at a time and make them with one
+    // batch entry call.
+    //
+    // <impl: molecule|h2o|h2o-batch|lockfree> <recipe> <threads per place> <num groups> <optional-debug level (default INFO)>
+    public static void main(final String[] args) {
+        // I hate the default logger setup from java:
+        // https://stackoverflow.com/questions/194765/how-do-i-get-java-logging-output-to-appear-on-a-single-line
+        System.setProperty("java.util.logging.SimpleFormatter.format",
+            "%1$tF %1$tT %4$s %2$s %5$s%6$s%n");
+        if(!(4 <= args.length && args.length <= 5)) {
+            throw new IllegalArgumentException("Invalid args.length");
+        }
+        String impl = args[0];
+        int[] recipe = parseRecipe(args[1]);
+        int threads_per_place = Integer.parseInt(args[2]);
+        long num_groups = Long.parseLong(args[3]);
+        Level log_level = Level.INFO;
+        if(args.length == 5) {
+            log_level = Level.parse(args[4].toUpperCase());
+        }
+        Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        LOGGER.setLevel(log_level);
+
+        Entry enter;
+        int batch = 1;
+        LongSupplier groups_formed;
+        if(impl.equalsIgnoreCase("molecule")) {
+            MoleculeMonitor monitor = new MoleculeMonitor(recipe);
+            enter = (kind, count) -> monitor.enter(kind);
+            groups_formed = monitor::get_num_groups;
+        }
+        else if(impl.equalsIgnoreCase("h2o")) {
+            checkH2O(impl, recipe);
+            H2OMonitor monitor = new H2OMonitor();
+            enter = (kind, count) -> {
+                if(kind == 0) {
+                    monitor.enter_hydrogen();
+                }
+                else {
+                    monitor.enter_oxygen();
+                }
+            };
+            groups_formed = monitor::get_num_H2O;
+        }
+        else if(impl.equalsIgnoreCase("h2o-batch")) {
+            checkH2O(impl, recipe);
+            H2OMonitor monitor = new H2OMonitor();
+            enter = (kind, count) -> {
+                if(kind == 0) {
+                    monitor.enter_hydrogen(count);
+                }
+                else {
+                    monitor.enter_oxygen(count);
+                }
+            };
+            batch = BATCH;
+            groups_formed = monitor::get_num_H2O;
+        }
+        else if(impl.equalsIgnoreCase("lockfree")) {
+            checkH2O(impl, recipe);
+            LockFreeH2O barrier = new LockFreeH2O();
+            enter = (kind, count) -> {
+                if(kind == 0) {
+                    barrier.enter_hydrogen();
+                }
+                else {
+                    barrier.enter_oxygen();
+                }
+            };
+            groups_formed = barrier::get_num_H2O;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown impl " + impl);
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        int my_batch = batch;
+        for(int kind = 0; kind < recipe.length; ++kind) {
+            AtomicLong entries_left = new AtomicLong(num_groups * recipe[kind]);
+            for(int i = 0; i < recipe[kind] * threads_per_place; ++i) {
+                int my_kind = kind;
+                threads.add(new Thread(() -> {
+                    int count;
+                    while((count = takeEntries(entries_left, my_batch)) > 0) {
+                        enter.enter(my_kind, count);
+                    }
+                }));
+            }
+        }
+
+        long start = System.nanoTime();
+        for(Thread t : threads) {
+            t.start();
+        }
+        for(Thread t : threads) {
+            try {
+                t.join();
+            }
+            catch(InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long groups = groups_formed.getAsLong();
+        if(groups != num_groups) {
+            throw new IllegalStateException("formed " + groups + " groups, expected " + num_groups);
+        }
+        LOGGER.info(String.format("%s %s: %d threads: %d groups, %.0f groups/sec",
+                                  impl, args[1], threads.size(), groups, groups / (elapsed / 1e9)));
+    }
+
+    /*
+     * Sends *count* entries' worth of *kind* through the barrier
+     */
+    private interface Entry {
+        void enter(int kind, int count);
+    }
+
+    /*
+     * Take up to *max* entries from *entries_left*, returning
+     * how many we got
+     */
+    private static int takeEntries(AtomicLong entries_left, int max) {
+        while(true) {
+            long left = entries_left.get();
+            if(left <= 0) {
+                return 0;
+            }
+            int count = (int) Math.min(max, left);
+            if(entries_left.compareAndSet(left, left - count)) {
+                return count;
+            }
+        }
+    }
+
+    private static void checkH2O(String impl, int[] recipe) {
+        if(recipe.length != 2 || recipe[0] != 2 || recipe[1] != 1) {
+            throw new IllegalArgumentException(impl + " only does 2H+1O");
+        }
+    }
+
+    /*
+     * Counts of each kind in a recipe like 6C+12H+6O, in the
+     * order the kinds are written
+     */
+    static int[] parseRecipe(String recipe) {
+        String[] parts = recipe.split("\\+");
+        int[] counts = new int[parts.length];
+        for(int i = 0; i < parts.length; ++i) {
+            String digits = parts[i].replaceAll("[^0-9].*$", "");
+            if(digits.length() == parts[i].length()) {
+                throw new IllegalArgumentException("recipe part " + parts[i] + " has no kind");
+            }
+            counts[i] = digits.isEmpty() ? 1 : Integer.parseInt(digits);
+        }
+        return counts;
+    }
+}
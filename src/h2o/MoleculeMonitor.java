@@ -0,0 +1,130 @@
+package h2o;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The H2O barrier for any recipe: threads of several kinds enter, and
+ * are let through in complete groups of recipe[k] threads of each
+ * kind k. H2O is new MoleculeMonitor(2, 1) with hydrogen as kind 0
+ * and oxygen as kind 1, "3 workers + 1 coordinator" is
+ * new MoleculeMonitor(3, 1).
+ *
+ * Waiting threads queue up by kind, each on its own condition. The
+ * thread whose arrival completes a group takes the longest-waiting
+ * threads of each kind out of the queues, hands them the group's
+ * number and signals exactly them, so each released thread is woken
+ * once and nobody else is woken at all.
+ */
+public class MoleculeMonitor {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int[] recipe;
+    private final ArrayDeque<Waiter>[] waiting;
+    private long num_groups = 0;
+
+    /**
+     * Groups need recipe[k] threads of kind k, for kinds
+     * 0, ..., recipe.length-1
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public MoleculeMonitor(int... _recipe) {
+        if(_recipe.length == 0) {
+            throw new IllegalArgumentException("recipe must have at least one kind");
+        }
+        for(int count : _recipe) {
+            if(count <= 0) {
+                throw new IllegalArgumentException("every kind in the recipe needs a positive count");
+            }
+        }
+        recipe = _recipe.clone();
+        waiting = new ArrayDeque[recipe.length];
+        for(int k = 0; k < recipe.length; ++k) {
+            waiting[k] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * Number of kinds in the recipe
+     */
+    public int kinds() {
+        return recipe.length;
+    }
+
+    /**
+     * Call to send a thread of *kind* through the barrier
+     *
+     * Terminates once it is part of a complete group, and returns the
+     * group's number: groups are numbered 0, 1, 2, ... in the order
+     * they form, and every member of a group gets the same number.
+     */
+    public long enter(int kind) {
+        if(kind < 0 || kind >= recipe.length) {
+            throw new IllegalArgumentException("kind must be in range [0," + recipe.length + ")");
+        }
+        lock.lock();
+        try {
+            if(!groupComplete(kind)) {
+                Waiter me = new Waiter(lock.newCondition());
+                waiting[kind].addLast(me);
+                while(me.group < 0) {
+                    try {
+                        me.released.await();
+                    } catch(InterruptedException e) {}
+                }
+                return me.group;
+            }
+            // We complete a group: take the rest of it out of the queues
+            long group = num_groups++;
+            for(int k = 0; k < recipe.length; ++k) {
+                int needed = k == kind ? recipe[k] - 1 : recipe[k];
+                for(int i = 0; i < needed; ++i) {
+                    Waiter w = waiting[k].pollFirst();
+                    w.group = group;
+                    w.released.signal();
+                }
+            }
+            return group;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of groups formed so far
+     */
+    public long get_num_groups() {
+        lock.lock();
+        try {
+            return num_groups;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Whether the waiting threads and a new arrival of *kind*
+     * make a group
+     */
+    private boolean groupComplete(int kind) {
+        for(int k = 0; k < recipe.length; ++k) {
+            int needed = k == kind ? recipe[k] - 1 : recipe[k];
+            if(waiting[k].size() < needed) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Waiter {
+        final Condition released;
+        // set once released
+        long group = -1;
+
+        Waiter(Condition _released) {
+            released = _released;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package roundrobin;
+
+/*
+ * Told how long each handoff took, for RoundRobinBenchmark
+ *
+ * A handoff is timed from just before the thread passing the turn
+ * on publishes it to just after the thread it was passed to gets
+ * through its wait, and reported by the latter.
+ */
+interface HandoffTimer {
+    /*
+     * Called by thread_id, which just got the turn *nanos*
+     * after it was passed to it
+     */
+    void handoff(int thread_id, long nanos);
+}
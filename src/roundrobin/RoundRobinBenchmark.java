@@ -0,0 +1,197 @@
+package roundrobin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measure how many turns per second go round a RoundRobinMonitor
+ * or TokenRing, and how long handing the turn on takes
+ */
+public class RoundRobinBenchmark {
+    // How long spin-yield-park TokenRing waiters spin and yield
+    // before parking (fixed, not tuned as the run goes)
+    private static final int WAIT_SPINS = 2000, WAIT_YIELDS = 4;
+
+    // Each of <num threads> threads takes <turns per thread> turns.
+    // The monitor logs every turn at INFO, so its logger is set to
+    // WARNING unless a level is given. spin, spin-yield-park and park are
+    // TokenRings which spin-only, spin/yield then park, or park
+    // straight away. In dynamic, thread id registers itself with a
+    // quantum of 1 + (id-1) % 4, takes quantum * <turns per thread>
+    // turns, then deregisters while the others carry on.
+    //
+    // Each handoff is timed inside the monitor or ring (through a
+    // HandoffTimer): from just before the turn is passed on to just
+    // after the thread it was passed to gets through its wait.
+    //
+    // <impl: signal-all|per-thread|spin|spin-yield-park|park|dynamic> <num threads> <turns per thread> <optional - monitor log level (default WARNING)>
+    public static void main(String[] args) {
+        // I hate the default logger setup from java:
+        // https://stackoverflow.com/questions/194765/how-do-i-get-java-logging-output-to-appear-on-a-single-line
+        System.setProperty("java.util.logging.SimpleFormatter.format",
+            "%1$tF %1$tT %4$s %2$s %5$s%6$s%n");
+        if(!(3 <= args.length && args.length <= 4)) {
+            throw new IllegalArgumentException("Invalid args.length");
+        }
+        String impl = args[0];
+        int num_threads = Integer.parseInt(args[1]),
+            num_turns = Integer.parseInt(args[2]);
+        if(num_threads <= 0 || num_turns <= 0) {
+            throw new IllegalArgumentException("num threads and turns per thread must be positive");
+        }
+        Level monitor_log_level = Level.WARNING;
+        if(args.length == 4) {
+            monitor_log_level = Level.parse(args[3].toUpperCase());
+        }
+        Logger.getLogger("roundrobin").setLevel(monitor_log_level);
+        Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+
+        if(impl.equalsIgnoreCase("dynamic")) {
+            runDynamic(num_threads, num_turns, LOGGER);
+            return;
+        }
+        // handoffs[id-1]: the handoffs to thread id, each only
+        // written by thread id
+        long handoffs[][] = new long[num_threads][num_turns];
+        int num_handoffs[] = new int[num_threads];
+        IntConsumer access = build(impl, num_threads, (thread_id, nanos) -> {
+            handoffs[thread_id - 1][num_handoffs[thread_id - 1]++] = nanos;
+        });
+
+        List<Thread> threads = new ArrayList<>();
+        for(int i = 1; i <= num_threads; ++i) {
+            int id = i;
+            threads.add(new Thread(() -> {
+                for(int t = 0; t < num_turns; ++t) {
+                    access.accept(id);
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for(Thread t : threads) {
+            t.start();
+        }
+        for(Thread t : threads) {
+            try {
+                t.join();
+            } catch(InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        long turns = (long) num_threads * num_turns;
+        LOGGER.info(String.format("%s: %d threads: %d turns, %.0f turns/sec",
+                                  impl, num_threads, turns, turns / (elapsed / 1e9)));
+        // (join() made every thread's handoffs visible)
+        long all[] = new long[Arrays.stream(num_handoffs).sum()];
+        int filled = 0;
+        for(int k = 0; k < num_threads; ++k) {
+            System.arraycopy(handoffs[k], 0, all, filled, num_handoffs[k]);
+            filled += num_handoffs[k];
+        }
+        if(all.length > 0) {
+            Arrays.sort(all);
+            LOGGER.info(String.format("%s: %d handoffs p50 %s p99 %s p99.9 %s max %s",
+                                      impl, all.length, micros(percentile(all, 50)), micros(percentile(all, 99)),
+                                      micros(percentile(all, 99.9)), micros(all[all.length - 1])));
+            LOGGER.info(String.format("%s: handoff histogram %s", impl, histogram(all)));
+        }
+    }
+
+    /*
+     * Threads with different quanta joining and leaving
+     * the ring as they start and finish
+     */
+    private static void runDynamic(int num_threads, int num_turns, Logger LOGGER) {
+        RoundRobinMonitor monitor = new RoundRobinMonitor(RoundRobinMonitor.Wakeups.PER_THREAD);
+        List<Thread> threads = new ArrayList<>();
+        long turns = 0;
+        for(int i = 1; i <= num_threads; ++i) {
+            int id = i, quantum = 1 + (i - 1) % 4;
+            turns += (long) quantum * num_turns;
+            threads.add(new Thread(() -> {
+                monitor.register(id, quantum);
+                for(int t = 0; t < quantum * num_turns; ++t) {
+                    monitor.get_access(id);
+                }
+                monitor.deregister(id);
+            }));
+        }
+        long start = System.nanoTime();
+        for(Thread t : threads) {
+            t.start();
+        }
+        for(Thread t : threads) {
+            try {
+                t.join();
+            } catch(InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        LOGGER.info(String.format("dynamic: %d threads: %d turns, %.0f turns/sec",
+                                  num_threads, turns, turns / (elapsed / 1e9)));
+    }
+
+    /*
+     * get_access of the monitor or token ring named *impl*,
+     * timing its handoffs with *timer*
+     */
+    static IntConsumer build(String impl, int num_threads, HandoffTimer timer) {
+        switch(impl.toLowerCase()) {
+            case "signal-all":
+                return timed(new RoundRobinMonitor(num_threads, RoundRobinMonitor.Wakeups.SIGNAL_ALL), timer);
+            case "per-thread":
+                return timed(new RoundRobinMonitor(num_threads, RoundRobinMonitor.Wakeups.PER_THREAD), timer);
+            case "spin":
+                return timed(new TokenRing(num_threads, TokenRing.SPIN_FOREVER, 0), timer);
+            case "spin-yield-park":
+                return timed(new TokenRing(num_threads, WAIT_SPINS, WAIT_YIELDS), timer);
+            case "park":
+                return timed(new TokenRing(num_threads, 0, 0), timer);
+            default:
+                throw new IllegalArgumentException("Unknown impl " + impl);
+        }
+    }
+
+    private static IntConsumer timed(RoundRobinMonitor monitor, HandoffTimer timer) {
+        monitor.timeHandoffs(timer);
+        return monitor::get_access;
+    }
+
+    private static IntConsumer timed(TokenRing ring, HandoffTimer timer) {
+        ring.timeHandoffs(timer);
+        return ring::get_access;
+    }
+
+    /*
+     * Share of the (sorted) *nanos* in each power-of-two bucket
+     * of microseconds, leaving out empty buckets
+     */
+    private static String histogram(long sorted_nanos[]) {
+        StringBuilder out = new StringBuilder();
+        int i = 0;
+        for(long bound = 1000; i < sorted_nanos.length; bound *= 2) {
+            int start = i;
+            while(i < sorted_nanos.length && sorted_nanos[i] < bound) {
+                ++i;
+            }
+            if(i > start) {
+                out.append(String.format(" <%s:%.2f%%", micros(bound), 100.0 * (i - start) / sorted_nanos.length));
+            }
+        }
+        return out.toString().trim();
+    }
+
+    private static long percentile(long sorted[], double percentile) {
+        return sorted[(int) Math.ceil(percentile / 100 * sorted.length) - 1];
+    }
+
+    private static String micros(long nanos) {
+        return String.format("%.1fus", nanos / 1e3);
+    }
+}
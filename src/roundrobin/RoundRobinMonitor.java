@@ -1,5 +1,6 @@
 package roundrobin;
 
+import java.util.TreeMap;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
@@ -7,61 +8,221 @@ import java.util.logging.Logger;
 /**
  * Manage n threads by allowing them to access the monitor
  * in round-robin order
+ *
+ * Threads go round in order of thread_id. Threads can register and
+ * deregister while the ring is running, and the turn skips ids that
+ * aren't registered, so a thread that leaves doesn't stall everybody
+ * else. Each thread has a quantum: the number of turns in a row it
+ * gets before the turn moves on.
  */
 public class RoundRobinMonitor {
+    /*
+     * How waiting threads get woken up.
+     *
+     * SIGNAL_ALL has everybody wait on one condition and wakes them
+     * all on each turn to check whose turn it is. PER_THREAD gives
+     * each thread_id its own condition and wakes just the thread
+     * whose turn is next.
+     */
+    public enum Wakeups {
+        SIGNAL_ALL,
+        PER_THREAD
+    }
+
     private Logger LOGGER = Logger.getLogger(RoundRobinMonitor.class.getName());
     private final ReentrantLock lock = new ReentrantLock();
-    private final Condition my_turn = lock.newCondition();
+    private final Wakeups wakeups;
+    // Everybody waits on this with SIGNAL_ALL
+    private final Condition all_turns;
 
-    private int current_turn = 1, // threads labeled 1...n
+    // Registered threads by thread_id
+    private final TreeMap<Integer, Member> members = new TreeMap<>();
+    private int current_turn = 0, // 0 while nobody is registered
+        turns_left = 0, // of current_turn's quantum
         num_turns = 0;
-    private final int num_threads_total;
+    // null unless RoundRobinBenchmark is timing handoffs, in which
+    // case passed_at is when the turn was last passed on
+    private HandoffTimer timer = null;
+    private long passed_at;
 
     /*
-    * Create a round robin monitor that manages exactly
-    * *_num_threads_total* threads
+    * Create a round robin monitor that starts out managing
+    * threads 1...*_num_threads_total*, each with a quantum of 1
     */
     public RoundRobinMonitor(final int _num_threads_total) {
+        this(_num_threads_total, Wakeups.PER_THREAD);
+    }
+
+    public RoundRobinMonitor(final int _num_threads_total, final Wakeups _wakeups) {
         if(_num_threads_total <= 0) {
             throw new IllegalArgumentException("_num_threads_total must be positive");
         }
-        num_threads_total = _num_threads_total;
-        LOGGER.info("Monitor created managing " + num_threads_total + " threads.");
+        wakeups = _wakeups;
+        all_turns = lock.newCondition();
+        for(int id = 1; id <= _num_threads_total; ++id) {
+            register(id, 1);
+        }
+        LOGGER.info("Monitor created managing " + _num_threads_total + " threads.");
+    }
+
+    /*
+    * Create a round robin monitor with nobody registered yet
+    */
+    public RoundRobinMonitor(final Wakeups _wakeups) {
+        wakeups = _wakeups;
+        all_turns = lock.newCondition();
+        LOGGER.info("Monitor created managing no threads yet.");
+    }
+
+    /**
+     * Add thread_id (positive) to the ring, taking *quantum* turns
+     * in a row each time round. If the ring was empty it's thread_id's
+     * turn straight away.
+     */
+    public void register(final int thread_id, final int quantum) {
+        if(thread_id <= 0) {
+            throw new IllegalArgumentException("thread_id must be positive");
+        }
+        if(quantum <= 0) {
+            throw new IllegalArgumentException("quantum must be positive");
+        }
+        lock.lock();
+        try {
+            if(members.containsKey(thread_id)) {
+                throw new IllegalArgumentException("Thread " + thread_id + " is already registered");
+            }
+            members.put(thread_id, new Member(quantum));
+            LOGGER.info("Thread " + thread_id + " registered with quantum " + quantum);
+            if(current_turn == 0) {
+                passTurn(thread_id);
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Take thread_id out of the ring, passing the turn on if it
+     * was thread_id's
+     */
+    public void deregister(final int thread_id) {
+        lock.lock();
+        try {
+            Member leaving = members.remove(thread_id);
+            if(leaving == null) {
+                throw new IllegalArgumentException("Thread " + thread_id + " is not registered");
+            }
+            LOGGER.info("Thread " + thread_id + " deregistered");
+            // If thread_id is waiting in get_access, it has to find out
+            if(wakeups == Wakeups.PER_THREAD) {
+                leaving.my_turn.signal();
+            }
+            else {
+                all_turns.signalAll();
+            }
+            if(current_turn == thread_id) {
+                passTurn(nextAfter(thread_id));
+            }
+        }
+        finally {
+            lock.unlock();
+        }
     }
 
     /**
-     * Enter thread with given thread_id in 1,2...,num_threads_total
-     * 
+     * Enter registered thread with given thread_id
+     *
      * We trust that threads are honest
      */
     public void get_access(final int thread_id) {
-        if(!(0 < thread_id && thread_id <= num_threads_total)) {
-            String msg = "thread_id must be in range [1," + num_threads_total + "]";
-            throw new IllegalArgumentException(msg);
-        }
         lock.lock();
         try {
+            Member me = members.get(thread_id);
+            if(me == null) {
+                throw new IllegalArgumentException("Thread " + thread_id + " is not registered");
+            }
             // Wait until it's my turn
             if(current_turn != thread_id) {
                 LOGGER.info("Thread " + thread_id + " waiting for its turn.");
             }
+            Condition my_condition = wakeups == Wakeups.PER_THREAD ? me.my_turn : all_turns;
             while(current_turn != thread_id) {
+                if(members.get(thread_id) != me) {
+                    throw new IllegalStateException("Thread " + thread_id + " was deregistered while waiting");
+                }
                 try {
-                    my_turn.await();
+                    my_condition.await();
                 } catch(InterruptedException e) {}
             }
+            if(timer != null && num_turns > 0 && turns_left == me.quantum) {
+                // First turn of our quantum, so it was just passed to us
+                timer.handoff(thread_id, System.nanoTime() - passed_at);
+            }
             // Record that we took our turn
             num_turns++;
             LOGGER.info("Thread " + thread_id + " takes its turn. This is turn " + num_turns);
-            // Now it's somebody else's turn
-            current_turn %= num_threads_total;
-            current_turn++;
-            // We have to signal everybody because everybody is waiting on the
-            // same lock
-            my_turn.signalAll();
+            // Once our quantum is used up it's somebody else's turn
+            if(--turns_left == 0) {
+                passTurn(nextAfter(thread_id));
+            }
         }
         finally {
             lock.unlock();
         }
     }
-}
\ No newline at end of file
+
+    /*
+     * Time every handoff from now on with *_timer*. Must be set
+     * before any thread enters.
+     */
+    void timeHandoffs(final HandoffTimer _timer) {
+        timer = _timer;
+    }
+
+    /*
+     * Registered thread after thread_id in the ring, 0 if nobody is
+     * registered. thread_id itself needn't be registered.
+     */
+    private int nextAfter(final int thread_id) {
+        Integer next = members.higherKey(thread_id);
+        if(next == null) {
+            next = members.isEmpty() ? 0 : members.firstKey();
+        }
+        return next;
+    }
+
+    /*
+     * Make it thread_id's turn (nobody's if 0) for a whole quantum
+     */
+    private void passTurn(final int thread_id) {
+        current_turn = thread_id;
+        if(thread_id == 0) {
+            turns_left = 0;
+            return;
+        }
+        Member next = members.get(thread_id);
+        turns_left = next.quantum;
+        if(timer != null) {
+            passed_at = System.nanoTime();
+        }
+        if(wakeups == Wakeups.PER_THREAD) {
+            // Only the next thread can go
+            next.my_turn.signal();
+        }
+        else {
+            // We have to signal everybody because everybody is waiting on the
+            // same lock
+            all_turns.signalAll();
+        }
+    }
+
+    private class Member {
+        final int quantum;
+        final Condition my_turn = lock.newCondition();
+
+        Member(final int _quantum) {
+            quantum = _quantum;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package roundrobin;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Round-robin turns without a lock: a token passed round a ring
+ * of n threads
+ *
+ * The token is a count of turns taken so far, on a cache line of its
+ * own, and it is thread (turns % n) + 1's turn. Only the thread whose
+ * turn it is ever writes the count, so taking a turn and passing the
+ * token on is one volatile write.
+ *
+ * A waiting thread spins for up to spin_tries checks, then yields
+ * for up to yield_tries, then parks until the thread before it
+ * unparks it. The budgets are fixed: they don't adapt to how long
+ * turns have been taking, so they have to be picked for the load. Spinning hands the turn on fastest but burns a core
+ * per waiting thread, so only suits as many threads as cores;
+ * parking costs a trip through the scheduler per turn.
+ */
+public class TokenRing {
+    // Never stop spinning
+    public static final int SPIN_FOREVER = Integer.MAX_VALUE;
+
+    // longs per cache line, twice over so adjacent-line
+    // prefetching doesn't pull in the neighbours either
+    private static final int PAD = 16;
+    // turns, and when it was last passed on (only kept while timing
+    // handoffs), each sit alone between runs of padding, so writing
+    // the time doesn't disturb threads spinning on turns
+    private static final int TURNS = PAD, PASSED_AT = 2 * PAD + 1;
+
+    private final AtomicLongArray cells = new AtomicLongArray(3 * PAD + 2);
+    // parked[id - 1]: thread id, if it may be parked
+    private final AtomicReferenceArray<Thread> parked;
+    private final int num_threads_total, spin_tries, yield_tries;
+    // null unless RoundRobinBenchmark is timing handoffs
+    private HandoffTimer timer = null;
+
+    /*
+     * Create a token ring of exactly *_num_threads_total* threads,
+     * each of which spins for up to *_spin_tries* checks (SPIN_FOREVER
+     * to never stop) and then yields up to *_yield_tries* times before
+     * parking
+     */
+    public TokenRing(final int _num_threads_total, final int _spin_tries, final int _yield_tries) {
+        if(_num_threads_total <= 0) {
+            throw new IllegalArgumentException("_num_threads_total must be positive");
+        }
+        if(_spin_tries < 0 || _yield_tries < 0) {
+            throw new IllegalArgumentException("spin and yield tries must be non-negative");
+        }
+        num_threads_total = _num_threads_total;
+        spin_tries = _spin_tries;
+        yield_tries = _yield_tries;
+        parked = new AtomicReferenceArray<>(num_threads_total);
+    }
+
+    /**
+     * Enter thread with given thread_id in 1,2...,num_threads_total,
+     * waiting until it is its turn and passing the turn on
+     *
+     * We trust that threads are honest
+     */
+    public void get_access(final int thread_id) {
+        if(!(0 < thread_id && thread_id <= num_threads_total)) {
+            String msg = "thread_id must be in range [1," + num_threads_total + "]";
+            throw new IllegalArgumentException(msg);
+        }
+        long turn = awaitTurn(thread_id);
+        if(timer != null) {
+            if(turn > 0) {
+                // Written before the turn was, so we see it
+                timer.handoff(thread_id, System.nanoTime() - cells.getPlain(PASSED_AT));
+            }
+            cells.setPlain(PASSED_AT, System.nanoTime());
+        }
+        // Now it's somebody else's turn
+        cells.set(TURNS, turn + 1);
+        Thread next = parked.get((int) ((turn + 1) % num_threads_total));
+        if(next != null) {
+            LockSupport.unpark(next);
+        }
+    }
+
+    /**
+     * Number of turns taken so far
+     */
+    public long get_num_turns() {
+        return cells.get(TURNS);
+    }
+
+    /*
+     * Time every handoff from now on with *_timer*. Must be set
+     * before any thread enters.
+     */
+    void timeHandoffs(final HandoffTimer _timer) {
+        timer = _timer;
+    }
+
+    /*
+     * Wait until it is thread_id's turn, returning the turn
+     */
+    private long awaitTurn(final int thread_id) {
+        for(long i = 0; ; ++i) {
+            long turn = cells.get(TURNS);
+            if(turn % num_threads_total == thread_id - 1) {
+                return turn;
+            }
+            if(spin_tries == SPIN_FOREVER || i < spin_tries) {
+                Thread.onSpinWait();
+            }
+            else if(i < (long) spin_tries + yield_tries) {
+                Thread.yield();
+            }
+            else {
+                // Announce ourselves before the final check, so the
+                // thread before us either sees us and unparks us or
+                // passed the turn on before our check
+                parked.set(thread_id - 1, Thread.currentThread());
+                if(cells.get(TURNS) % num_threads_total != thread_id - 1) {
+                    LockSupport.park(this);
+                }
+                parked.set(thread_id - 1, null);
+            }
+        }
+    }
+}
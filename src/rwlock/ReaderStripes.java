@@ -0,0 +1,70 @@
+package rwlock;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * A count of readers split over several counters (stripes), each on
+ * its own cache line, so readers on different cores announce
+ * themselves without fighting over one line. A thread always uses the
+ * same stripe, picked from its id, so it leaves from the stripe it
+ * arrived on.
+ *
+ * Only the total means anything, and reading it takes a pass over
+ * every stripe, so this suits frequent arrive/depart and rare
+ * isEmpty checks (SNZI-style).
+ */
+class ReaderStripes {
+    // longs per stripe: 128 bytes keeps adjacent-line
+    // prefetching from pairing stripes up too
+    private static final int STRIDE = 16;
+
+    private final AtomicLongArray counts;
+    private final int mask;
+
+    /*
+     * Enough stripes that threads on different cores
+     * rarely share one
+     */
+    ReaderStripes() {
+        int wanted = 4 * Runtime.getRuntime().availableProcessors();
+        int num_stripes = Integer.highestOneBit(Math.max(1, wanted - 1)) << 1;
+        counts = new AtomicLongArray(num_stripes * STRIDE);
+        mask = num_stripes - 1;
+    }
+
+    /*
+     * The calling thread starts reading. Ordered before any
+     * volatile read that follows it.
+     */
+    void arrive() {
+        counts.getAndIncrement(stripe());
+    }
+
+    /*
+     * The calling thread, which arrived, stops reading
+     */
+    void depart() {
+        counts.getAndDecrement(stripe());
+    }
+
+    /*
+     * Whether no thread is reading. Only exact once no new
+     * readers can arrive.
+     */
+    boolean isEmpty() {
+        for(int i = 0; i <= mask; ++i) {
+            if(counts.get(i * STRIDE) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Spread threads over the stripes by (mixed) thread id
+     */
+    private int stripe() {
+        long mixed = Thread.currentThread().getId() * 0x9E3779B97F4A7C15L;
+        return ((int) (mixed >>> 32) & mask) * STRIDE;
+    }
+}
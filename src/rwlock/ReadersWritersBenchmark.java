@@ -0,0 +1,228 @@
+package rwlock;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measure read and write throughput of the readers-writers monitor
+ * on the driver's workload: readers sum an int[100], writers
+ * increment every entry of it.
+ */
+public class ReadersWritersBenchmark {
+    // Each reader does <ops per thread> reads and each writer
+    // <ops per thread> writes. Readers check that every entry they
+    // read is the same, so a read that overlaps a write is caught.
+    // The optimistic impls read with tryOptimisticRead()/validate(),
+    // falling back to enterReader(), and report how often they fell back.
+    // Also reports the p99 and worst time readers and writers waited to
+    // get in. The snapshot impl keeps the resource in a SnapshotResource
+    // instead, so readers never wait and writers copy it. The combining
+    // impl has writers submitWrite() their increments instead of
+    // entering, and reports how many exclusive sections they took.
+    //
+    // <impl: central|reader-preference|writer-preference|phase-fair|striped|optimistic|optimistic-striped|snapshot|combining> <num readers> <num writers> <ops per thread>
+    // <optional-debug level (default INFO)>
+    public static void main(final String[] args) {
+        // I hate the default logger setup from java:
+        // https://stackoverflow.com/questions/194765/how-do-i-get-java-logging-output-to-appear-on-a-single-line
+        System.setProperty("java.util.logging.SimpleFormatter.format",
+            "%1$tF %1$tT %4$s %2$s %5$s%6$s%n");
+        if(!(4 <= args.length && args.length <= 5)) {
+            throw new IllegalArgumentException("Invalid args.length");
+        }
+        String impl = args[0];
+        int num_readers = Integer.parseInt(args[1]);
+        int num_writers = Integer.parseInt(args[2]);
+        int num_ops = Integer.parseInt(args[3]);
+        Level log_level = Level.INFO;
+        if(args.length == 5) {
+            log_level = Level.parse(args[4].toUpperCase());
+        }
+        Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        LOGGER.setLevel(log_level);
+
+        boolean snapshot = impl.equalsIgnoreCase("snapshot");
+        ReadersWritersMonitor monitor = snapshot ? null : build(impl);
+        boolean optimistic = impl.toLowerCase().startsWith("optimistic");
+        boolean combining = impl.equalsIgnoreCase("combining");
+        int resource[] = new int[100];
+        SnapshotResource<int[]> snapshots = SnapshotResource.ofIntArray(resource);
+        AtomicLong read_nanos = new AtomicLong(), write_nanos = new AtomicLong(),
+            fallbacks = new AtomicLong();
+        // How long each enterReader()/enterWriter() took, by thread
+        long read_waits[][] = new long[num_readers][num_ops],
+            write_waits[][] = new long[num_writers][num_ops];
+        Thread threads[] = new Thread[num_readers + num_writers];
+        for(int i = 0; i < num_readers; ++i) {
+            long waits[] = read_waits[i];
+            threads[i] = new Thread(() -> {
+                long start = System.nanoTime(), fell_back = 0;
+                for(int j = 0; j < num_ops; ++j) {
+                    if(optimistic) {
+                        long stamp = monitor.tryOptimisticRead();
+                        int first = resource[0], sum = sum(resource);
+                        if(monitor.validate(stamp)) {
+                            check(first, sum, resource.length);
+                            continue;
+                        }
+                        ++fell_back;
+                    }
+                    long before = System.nanoTime();
+                    if(snapshot) {
+                        int[] version = snapshots.enterReader();
+                        waits[j] = System.nanoTime() - before;
+                        int first = version[0], sum = sum(version);
+                        snapshots.exitReader();
+                        check(first, sum, version.length);
+                        continue;
+                    }
+                    monitor.enterReader();
+                    waits[j] = System.nanoTime() - before;
+                    int first = resource[0], sum = sum(resource);
+                    monitor.exitReader();
+                    check(first, sum, resource.length);
+                }
+                read_nanos.addAndGet(System.nanoTime() - start);
+                fallbacks.addAndGet(fell_back);
+            });
+        }
+        for(int i = 0; i < num_writers; ++i) {
+            long waits[] = write_waits[i];
+            threads[num_readers + i] = new Thread(() -> {
+                long start = System.nanoTime();
+                for(int j = 0; j < num_ops; ++j) {
+                    long before = System.nanoTime();
+                    if(snapshot) {
+                        int[] version = snapshots.enterWriter();
+                        waits[j] = System.nanoTime() - before;
+                        for(int k = 0; k < version.length; ++k) {
+                            version[k]++;
+                        }
+                        snapshots.exitWriter();
+                        continue;
+                    }
+                    if(combining) {
+                        monitor.submitWrite(() -> {
+                            for(int k = 0; k < resource.length; ++k) {
+                                resource[k]++;
+                            }
+                        });
+                        waits[j] = System.nanoTime() - before;
+                        continue;
+                    }
+                    monitor.enterWriter();
+                    waits[j] = System.nanoTime() - before;
+                    for(int k = 0; k < resource.length; ++k) {
+                        resource[k]++;
+                    }
+                    monitor.exitWriter();
+                }
+                write_nanos.addAndGet(System.nanoTime() - start);
+            });
+        }
+
+        long start = System.nanoTime();
+        for(Thread t : threads) {
+            t.start();
+        }
+        for(Thread t : threads) {
+            try {
+                t.join();
+            }
+            catch(InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        LOGGER.info(String.format("%s: %d readers, %d writers: %.0f ops/sec, %s reads/sec per reader, %s writes/sec per writer",
+                                  impl, num_readers, num_writers,
+                                  (long) num_ops * threads.length / (elapsed / 1e9),
+                                  perThread(num_readers, num_ops, read_nanos.get()),
+                                  perThread(num_writers, num_ops, write_nanos.get())));
+        LOGGER.info(String.format("%s: enterReader %s, enterWriter %s",
+                                  impl, waitStats(read_waits), waitStats(write_waits)));
+        if(combining) {
+            LOGGER.info(String.format("%s: %d writes applied in %d exclusive sections", impl,
+                                      monitor.combinedUpdates(), monitor.combinedBatches()));
+        }
+        if(snapshot) {
+            LOGGER.info(String.format("%s: %d of %d retired versions reused", impl,
+                                      snapshots.reused(), (long) num_writers * num_ops));
+        }
+        if(optimistic && num_readers > 0) {
+            LOGGER.info(String.format("%s: %.2f%% of optimistic reads fell back to enterReader",
+                                      impl, 100.0 * fallbacks.get() / ((long) num_readers * num_ops)));
+        }
+    }
+
+    /*
+     * Build the monitor named *impl*
+     */
+    static ReadersWritersMonitor build(String impl) {
+        switch(impl.toLowerCase()) {
+            case "central":
+            case "reader-preference":
+            case "optimistic":
+            case "combining":
+                return new ReadersWritersMonitor(ReadersWritersMonitor.Policy.READER_PREFERENCE);
+            case "writer-preference":
+                return new ReadersWritersMonitor(ReadersWritersMonitor.Policy.WRITER_PREFERENCE);
+            case "phase-fair":
+                return new ReadersWritersMonitor(ReadersWritersMonitor.Policy.PHASE_FAIR);
+            case "striped":
+            case "optimistic-striped":
+                return new ReadersWritersMonitor(ReadersWritersMonitor.ReaderIndicator.STRIPED);
+            default:
+                throw new IllegalArgumentException("Unknown impl " + impl);
+        }
+    }
+
+    private static int sum(int[] resource) {
+        int sum = 0;
+        for(int k = 0; k < resource.length; ++k) {
+            sum += resource[k];
+        }
+        return sum;
+    }
+
+    /*
+     * Every entry of the resource is the same unless
+     * a read overlapped a write
+     */
+    private static void check(int first, int sum, int length) {
+        if(sum != first * length) {
+            throw new IllegalStateException("read overlapped a write");
+        }
+    }
+
+    /*
+     * p99 and worst of the waits that happened (optimistic reads that
+     * validated never called enterReader, so don't count)
+     */
+    private static String waitStats(long[][] waits_by_thread) {
+        long all[] = Arrays.stream(waits_by_thread)
+            .flatMapToLong(Arrays::stream)
+            .filter(wait -> wait > 0)
+            .sorted()
+            .toArray();
+        if(all.length == 0) {
+            return "-";
+        }
+        return String.format("p99 %.1f us max %.1f us",
+                             all[(int) Math.ceil(0.99 * all.length) - 1] / 1e3,
+                             all[all.length - 1] / 1e3);
+    }
+
+    /*
+     * Average ops/sec of *num_threads* threads which did *num_ops*
+     * ops each in *total_nanos* between them
+     */
+    private static String perThread(int num_threads, int num_ops, long total_nanos) {
+        if(num_threads == 0) {
+            return "-";
+        }
+        return String.format("%.0f", num_ops / (total_nanos / 1e9 / num_threads));
+    }
+}
@@ -1,5 +1,6 @@
 package rwlock;
 
+import java.lang.invoke.VarHandle;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.Condition;
 
@@ -15,29 +16,127 @@ import java.util.concurrent.locks.Condition;
  * then any reader needs to call enterReader() when reading
  * the resource and exitReader() when leaving, similarly
  * for writers
+ *
+ * Who goes first when both readers and writers are waiting is up to
+ * the Policy:
+ *   READER_PREFERENCE  readers enter whenever no writer is in, and
+ *                      a leaving writer lets all waiting readers in,
+ *                      so a stream of readers can starve writers
+ *   WRITER_PREFERENCE  readers hold back while a writer is waiting,
+ *                      and a leaving writer hands over to the next
+ *                      writer, so a stream of writers can starve readers
+ *   PHASE_FAIR         readers hold back while a writer is waiting,
+ *                      but a leaving writer lets in every reader that
+ *                      waited, so reader and writer phases alternate and
+ *                      neither waits more than one phase of the other
+ *
+ * Readers and writers wait on separate conditions. A leaving writer
+ * lets the waiting readers in itself (counting them in and starting
+ * a new reader phase) rather than waking them to race for it, and
+ * only one writer is signalled at a time.
+ *
+ * With a STRIPED reader indicator, readers don't take the lock at
+ * all unless a writer is in or waiting: they announce themselves in
+ * a ReaderStripes and check no writer has turned up. A writer turns
+ * up (revoking that fast path) by setting writer_in, then waits for
+ * the stripes to drain. Readers that see writer_in back out and wait
+ * for the writer to leave. This favours writers: readers arriving
+ * while one waits hold back until it is done, so STRIPED only comes
+ * with WRITER_PREFERENCE.
+ *
+ * Short reads can skip the monitor altogether and write nothing
+ * shared (seqlock-style):
+ *
+ *   long stamp = monitor.tryOptimisticRead();
+ *   ... read the resource into locals ...
+ *   if(!monitor.validate(stamp)) {
+ *       monitor.enterReader();
+ *       ... read it again ...
+ *       monitor.exitReader();
+ *   }
+ *
+ * What was read before validate() may be torn by a writer and must
+ * not be acted on (or trusted not to throw) until it validates.
+ *
+ * Writers making small updates can submitWrite() them instead of
+ * entering themselves: queued updates are applied in batches, each
+ * batch by one of their submitters in one exclusive section (flat
+ * combining, see WriteCombiner).
  */
 public class ReadersWritersMonitor {
-    private int num_readers = 0;
-    private boolean writer_in = false;
+    public enum ReaderIndicator { CENTRAL, STRIPED }
+    public enum Policy { READER_PREFERENCE, WRITER_PREFERENCE, PHASE_FAIR }
+
+    private final Policy policy;
+    private int num_readers = 0, waiting_readers = 0, waiting_writers = 0;
+    // Bumped each time a leaving writer lets the waiting readers in
+    private long reader_phase = 0;
+    // only written holding the lock, read without it by STRIPED readers
+    private volatile boolean writer_in = false;
+    // Bumped as each writer starts and finishes writing, so it is odd
+    // while one is writing. Starts at 2 so 0 is never a valid stamp.
+    private volatile long version = 2;
+    // null unless STRIPED
+    private final ReaderStripes stripes;
+    private final WriteCombiner combiner = new WriteCombiner(this);
 
     private ReentrantLock lock = new ReentrantLock();
-    private Condition no_more_writers = lock.newCondition(),
-        no_other_threads = lock.newCondition();
+    private Condition readers_turn = lock.newCondition(),
+        writers_turn = lock.newCondition(),
+        stripes_drained = lock.newCondition();
+
+    /*
+     * Count readers in one field updated under the lock,
+     * preferring readers
+     */
+    public ReadersWritersMonitor() {
+        this(ReaderIndicator.CENTRAL);
+    }
+
+    /*
+     * Count readers in one field updated under the lock,
+     * ordering readers and writers as described by *policy*
+     */
+    public ReadersWritersMonitor(Policy policy) {
+        this(ReaderIndicator.CENTRAL, policy);
+    }
+
+    /*
+     * Count readers as described by *indicator*, preferring
+     * readers if CENTRAL and writers if STRIPED
+     */
+    public ReadersWritersMonitor(ReaderIndicator indicator) {
+        this(indicator, indicator == ReaderIndicator.STRIPED ? Policy.WRITER_PREFERENCE
+                                                             : Policy.READER_PREFERENCE);
+    }
+
+    /*
+     * Count readers as described by *indicator*, ordering
+     * readers and writers as described by *policy*
+     */
+    public ReadersWritersMonitor(ReaderIndicator indicator, Policy _policy) {
+        if(indicator == ReaderIndicator.STRIPED && _policy != Policy.WRITER_PREFERENCE) {
+            throw new IllegalArgumentException("STRIPED readers need WRITER_PREFERENCE");
+        }
+        policy = _policy;
+        stripes = indicator == ReaderIndicator.STRIPED ? new ReaderStripes() : null;
+    }
 
     public void enterReader() {
+        if(stripes != null) {
+            enterStripedReader();
+            return;
+        }
         // First make sure no threads are currently asking for/relinquishing
         // access to the protected resource
         lock.lock();
         try {
-            // Now wait until all writers are out
-            while(writer_in) {
-                // Just ignore interruptions
-                try {
-                    no_other_threads.await();
-                }
-                catch(InterruptedException e) { }
+            if(!readerMustWait()) {
+                num_readers++;
+                return;
             }
-            num_readers++;
+            // Wait for a leaving writer to count us in
+            awaitReaderPhase();
         }
         // now release the monitor to let it handle other threads
         // entering/exiting the resource
@@ -48,6 +147,10 @@ public class ReadersWritersMonitor {
     }
 
     public void exitReader() {
+        if(stripes != null) {
+            departStripes();
+            return;
+        }
         // First make sure all other threads are in or out
         lock.lock();
         try {
@@ -57,7 +160,7 @@ public class ReadersWritersMonitor {
             // A writer might have been blocked if this was the
             // only reader, and only one writer can enter at a time,
             // so we signal to just one writer if there are no more readers
-            if(num_readers == 0) no_other_threads.signal();   
+            if(num_readers == 0 && waiting_writers > 0) writers_turn.signal();
         }
         finally {
             // make sure to release the lock
@@ -70,14 +173,30 @@ public class ReadersWritersMonitor {
         lock.lock();
         try {
             // wait until there are no readers & no writers
-            while(num_readers > 0 || writer_in) {
+            if(num_readers > 0 || writer_in) {
+                waiting_writers++;
+                while(num_readers > 0 || writer_in) {
+                    try {
+                        writers_turn.await();
+                    }
+                    // Ignore interrupts
+                    catch(InterruptedException e) { }
+                }
+                waiting_writers--;
+            }
+            writer_in = true;
+            // Readers who got in before they could see writer_in
+            // must leave first
+            while(stripes != null && !stripes.isEmpty()) {
                 try {
-                    no_other_threads.await();
+                    stripes_drained.await();
                 }
-                // Ignore interrupts
                 catch(InterruptedException e) { }
             }
-            writer_in = true;
+            // Tell optimistic readers a write is coming, before
+            // any of the writer's stores can be seen
+            version++;
+            VarHandle.storeStoreFence();
         }
         finally {
             // release monitor resources
@@ -89,16 +208,143 @@ public class ReadersWritersMonitor {
         // Block other threads from the monitor
         lock.lock();
         try {
-            // there is no longer a writer in
+            // the write is over (our stores can't move past this
+            // volatile write), and there is no longer a writer in
+            version++;
             writer_in = false;
-            // Another writer can enter if there are no readers
-            if(num_readers == 0) no_other_threads.signal();
-            // all readers can now enter
-            no_more_writers.signalAll();
+            // Readers go next unless we prefer writers and
+            // there is one waiting
+            if(waiting_readers > 0 && (policy != Policy.WRITER_PREFERENCE || waiting_writers == 0)) {
+                admitReaders();
+            }
+            // Otherwise another writer can enter (readers
+            // can't be in, they'd have needed us out)
+            else if(waiting_writers > 0) {
+                writers_turn.signal();
+            }
         }
         finally {
             // release the monitor
             lock.unlock();
         }
     }
+
+    /*
+     * Apply *update* to the resource as a writer, maybe batched with
+     * other writers' updates. Returns once it has been applied.
+     */
+    public void submitWrite(Runnable update) {
+        combiner.submit(update);
+    }
+
+    /*
+     * Number of exclusive sections submitted updates
+     * were applied in so far
+     */
+    public long combinedBatches() {
+        return combiner.batches();
+    }
+
+    /*
+     * Number of submitted updates applied so far
+     */
+    public long combinedUpdates() {
+        return combiner.updates();
+    }
+
+    /*
+     * Stamp to read the resource optimistically against, or 0
+     * (which never validates) if a writer is writing
+     */
+    public long tryOptimisticRead() {
+        long stamp = version;
+        return (stamp & 1) == 0 ? stamp : 0;
+    }
+
+    /*
+     * Whether no writer has written since *stamp* was handed out,
+     * so what was read since is consistent
+     */
+    public boolean validate(long stamp) {
+        // Keep the reads of the resource before our re-read of version
+        VarHandle.acquireFence();
+        return stamp != 0 && version == stamp;
+    }
+
+    private void enterStripedReader() {
+        while(true) {
+            // Announce ourselves, then look for a writer. A writer sets
+            // writer_in, then looks at the stripes, so one of us sees
+            // the other
+            stripes.arrive();
+            if(!writer_in) {
+                return;
+            }
+            // A writer is in or draining, back out and wait for it
+            departStripes();
+            lock.lock();
+            try {
+                if(readerMustWait()) {
+                    // Once let in, go round and arrive again
+                    awaitReaderPhase();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /*
+     * Whether a reader arriving now must wait, lock held
+     */
+    private boolean readerMustWait() {
+        return writer_in || (policy != Policy.READER_PREFERENCE && waiting_writers > 0);
+    }
+
+    /*
+     * Wait, lock held, for a leaving writer to start
+     * the next reader phase
+     */
+    private void awaitReaderPhase() {
+        waiting_readers++;
+        long phase = reader_phase;
+        while(reader_phase == phase) {
+            // Just ignore interruptions
+            try {
+                readers_turn.await();
+            }
+            catch(InterruptedException e) { }
+        }
+    }
+
+    /*
+     * Let every waiting reader in, lock held. CENTRAL readers are
+     * counted in here so no writer can slip in before they run,
+     * STRIPED readers arrive on the stripes themselves.
+     */
+    private void admitReaders() {
+        if(stripes == null) {
+            num_readers += waiting_readers;
+        }
+        waiting_readers = 0;
+        reader_phase++;
+        readers_turn.signalAll();
+    }
+
+    private void departStripes() {
+        stripes.depart();
+        // Only a writer draining the stripes cares that we left
+        if(writer_in) {
+            lock.lock();
+            try {
+                if(stripes.isEmpty()) {
+                    stripes_drained.signal();
+                }
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
 }
@@ -0,0 +1,202 @@
+package rwlock;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * A readers-writers monitor that knows which thread holds what, so
+ * holds can be nested and converted without leaving:
+ *
+ *  - a reader may enterReader() again, and a writer may enterWriter()
+ *    or enterReader() again; each enter needs its own exit
+ *  - a reader may upgrade() to a writer without letting a writer in
+ *    between, as long as no other reader is upgrading
+ *  - a writer may downgrade() to a reader without letting a writer
+ *    in between
+ *
+ * A read-modify-write then reads, upgrades if it has to, writes and
+ * exits once, instead of exitReader()/enterWriter() and re-checking
+ * what it read.
+ *
+ * Writers are preferred: new readers hold back while a writer or an
+ * upgrader waits (threads already reading re-enter freely, or they
+ * would deadlock with the waiting writer). An upgrader goes before
+ * waiting writers, which could otherwise never get in since it keeps
+ * reading while it waits.
+ *
+ * Exiting what the calling thread doesn't hold throws
+ * IllegalMonitorStateException, as does enterWriter() by a reader
+ * (two readers doing that would wait on each other forever).
+ */
+public class ReentrantReadersWritersMonitor {
+    // Threads that hold a read and not the write
+    private int num_readers = 0, waiting_writers = 0;
+    // Only ever set to a thread by that thread, so a thread may check
+    // whether it is the writer without the lock
+    private Thread writer = null, upgrader = null;
+    private int write_holds = 0;
+    // Nested enterReader()s of each thread, including a writer's
+    private final ThreadLocal<int[]> read_holds = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition readers_turn = lock.newCondition(),
+        writers_turn = lock.newCondition(),
+        upgraders_turn = lock.newCondition();
+
+    public void enterReader() {
+        int[] holds = read_holds.get();
+        // Already in: no need to ask, and asking could deadlock
+        // with a writer waiting for us to leave
+        if(holds[0] > 0 || writer == Thread.currentThread()) {
+            holds[0]++;
+            return;
+        }
+        lock.lock();
+        try {
+            while(writer != null || upgrader != null || waiting_writers > 0) {
+                // Just ignore interruptions
+                try {
+                    readers_turn.await();
+                }
+                catch(InterruptedException e) { }
+            }
+            num_readers++;
+            holds[0] = 1;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void exitReader() {
+        int[] holds = read_holds.get();
+        if(holds[0] == 0) {
+            throw new IllegalMonitorStateException("not reading");
+        }
+        if(--holds[0] > 0 || writer == Thread.currentThread()) {
+            return;
+        }
+        lock.lock();
+        try {
+            num_readers--;
+            // An upgrader only waits for the other readers to leave
+            if(upgrader != null && num_readers == 1) {
+                upgraders_turn.signal();
+            }
+            else if(num_readers == 0 && waiting_writers > 0) {
+                writers_turn.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void enterWriter() {
+        Thread me = Thread.currentThread();
+        if(writer == me) {
+            write_holds++;
+            return;
+        }
+        if(read_holds.get()[0] > 0) {
+            throw new IllegalMonitorStateException("readers must upgrade() to write");
+        }
+        lock.lock();
+        try {
+            waiting_writers++;
+            while(writer != null || upgrader != null || num_readers > 0) {
+                // Ignore interrupts
+                try {
+                    writers_turn.await();
+                }
+                catch(InterruptedException e) { }
+            }
+            waiting_writers--;
+            writer = me;
+            write_holds = 1;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    public void exitWriter() {
+        if(writer != Thread.currentThread()) {
+            throw new IllegalMonitorStateException("not writing");
+        }
+        if(--write_holds > 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            writer = null;
+            // Reads we took while writing carry on
+            if(read_holds.get()[0] > 0) {
+                num_readers++;
+            }
+            if(waiting_writers > 0) {
+                if(num_readers == 0) {
+                    writers_turn.signal();
+                }
+            }
+            else {
+                readers_turn.signalAll();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Turn the calling thread's read into a write, with no writer
+     * getting in between. Returns false straight away, still reading,
+     * if another reader is already upgrading: the caller should exit
+     * and re-enter as a writer, or both would wait for the other to
+     * stop reading.
+     *
+     * The thread still holds its reads, exiting the write makes it
+     * a plain reader again.
+     */
+    public boolean upgrade() {
+        Thread me = Thread.currentThread();
+        if(read_holds.get()[0] == 0 || writer == me) {
+            throw new IllegalMonitorStateException("only readers can upgrade");
+        }
+        lock.lock();
+        try {
+            if(upgrader != null) {
+                return false;
+            }
+            upgrader = me;
+            // No writer can be in while we read, wait for the other readers
+            while(num_readers > 1) {
+                try {
+                    upgraders_turn.await();
+                }
+                catch(InterruptedException e) { }
+            }
+            upgrader = null;
+            num_readers--;
+            writer = me;
+            write_holds = 1;
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Turn the calling thread's write into a read, with no writer
+     * getting in between. Same as enterReader() then exitWriter(),
+     * so it must be the thread's only write hold.
+     */
+    public void downgrade() {
+        if(writer != Thread.currentThread() || write_holds != 1) {
+            throw new IllegalMonitorStateException("only a writer holding once can downgrade");
+        }
+        enterReader();
+        exitWriter();
+    }
+}
@@ -0,0 +1,214 @@
+package rwlock;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BinaryOperator;
+
+/*
+ * A companion to ReadersWritersMonitor that owns the resource itself
+ * and never blocks readers (copy-on-write, RCU-style).
+ *
+ * A reader gets the current version of the resource from
+ * enterReader() and may read it until exitReader(), without taking
+ * any lock or writing anything but its own slot. A writer gets a
+ * private copy of the current version from enterWriter(), changes it,
+ * and exitWriter() publishes it as the new current version in one
+ * volatile write, so readers see either all of a write or none of it.
+ * Writers still exclude each other.
+ *
+ * Old versions are recycled as the copy the next writer gets, which
+ * is only safe once no reader can be reading them. That is decided
+ * with epochs: a version retired in epoch e may be reused once every
+ * reader that is reading entered in a later epoch, since those
+ * readers saw a newer version. Until then it waits on a retired list,
+ * so a reader that stays in for a long time only holds back reuse,
+ * never writers.
+ *
+ * Each thread may read one version at a time. A thread's reader slot
+ * is dropped by the next writer after the thread dies, so threads
+ * coming and going don't pile up slots.
+ */
+public class SnapshotResource<T> {
+    // A reader slot's epoch while its thread isn't reading
+    private static final long NOT_READING = Long.MAX_VALUE;
+
+    private volatile T current;
+    private volatile long epoch = 0;
+    private final BinaryOperator<T> copier;
+    private final CopyOnWriteArrayList<ReaderSlot> slots = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<ReaderSlot> my_slot = ThreadLocal.withInitial(() -> {
+        ReaderSlot slot = new ReaderSlot(Thread.currentThread());
+        slots.add(slot);
+        return slot;
+    });
+
+    // Only touched by the writer holding write_lock
+    private final ReentrantLock write_lock = new ReentrantLock();
+    private final ArrayDeque<Retired<T>> retired = new ArrayDeque<>();
+    private final ArrayDeque<T> reusable = new ArrayDeque<>();
+    private T next = null;
+    private long reused = 0;
+
+    /*
+     * Own *initial*. copier.apply(from, into) must copy *from* into
+     * *into* and return it, or return a new copy if *into* is null.
+     */
+    public SnapshotResource(T initial, BinaryOperator<T> _copier) {
+        current = initial;
+        copier = _copier;
+    }
+
+    /*
+     * An int[] resource, copied with System.arraycopy
+     */
+    public static SnapshotResource<int[]> ofIntArray(int[] initial) {
+        return new SnapshotResource<>(initial, (from, into) -> {
+            if(into == null || into.length != from.length) {
+                into = new int[from.length];
+            }
+            System.arraycopy(from, 0, into, 0, from.length);
+            return into;
+        });
+    }
+
+    /*
+     * Start reading: returns the version to read, which no writer
+     * will change until exitReader()
+     */
+    public T enterReader() {
+        ReaderSlot slot = my_slot.get();
+        // Announce the epoch before looking at current: a writer that
+        // retires what we are about to read then sees we may hold it
+        slot.epoch = epoch;
+        return current;
+    }
+
+    public void exitReader() {
+        my_slot.get().epoch = NOT_READING;
+    }
+
+    /*
+     * Start writing: returns a copy of the current version to
+     * change, which readers won't see until exitWriter()
+     */
+    public T enterWriter() {
+        write_lock.lock();
+        try {
+            next = copier.apply(current, reusable.pollFirst());
+        }
+        catch(RuntimeException e) {
+            write_lock.unlock();
+            throw e;
+        }
+        return next;
+    }
+
+    /*
+     * Publish what enterWriter() returned as the current version
+     */
+    public void exitWriter() {
+        // Before touching anything: a thread that isn't the writer
+        // would publish somebody else's half-built copy
+        if(!write_lock.isHeldByCurrentThread()) {
+            throw new IllegalMonitorStateException("not writing");
+        }
+        try {
+            T old = current;
+            current = next;
+            next = null;
+            // Readers announcing this epoch or earlier may have seen old
+            retired.addLast(new Retired<>(old, epoch));
+            epoch++;
+            reclaim();
+        }
+        finally {
+            write_lock.unlock();
+        }
+    }
+
+    /*
+     * Number of retired versions recycled so far
+     */
+    public long reused() {
+        write_lock.lock();
+        try {
+            return reused;
+        }
+        finally {
+            write_lock.unlock();
+        }
+    }
+
+    /*
+     * Move every retired version no reader can hold any more
+     * to reusable, and drop the slots of threads that are gone,
+     * holding write_lock
+     */
+    private void reclaim() {
+        long oldest_reader = NOT_READING;
+        List<ReaderSlot> gone = null;
+        for(ReaderSlot slot : slots) {
+            Thread owner = slot.owner.get();
+            if(owner == null || !owner.isAlive()) {
+                // Can't be reading any more, even if it died
+                // without calling exitReader()
+                if(gone == null) {
+                    gone = new ArrayList<>();
+                }
+                gone.add(slot);
+                continue;
+            }
+            oldest_reader = Math.min(oldest_reader, slot.epoch);
+        }
+        if(gone != null) {
+            slots.removeAll(gone);
+        }
+        while(!retired.isEmpty() && retired.peekFirst().epoch < oldest_reader) {
+            reusable.addLast(retired.pollFirst().version);
+            ++reused;
+        }
+    }
+
+    private static class Retired<T> {
+        final T version;
+        // epoch the version stopped being current in
+        final long epoch;
+
+        Retired(T _version, long _epoch) {
+            version = _version;
+            epoch = _epoch;
+        }
+    }
+
+    /*
+     * What one reader thread is up to, padded so readers don't share
+     * a cache line. The padding lives in superclasses, as in
+     * boundedbuffer.Sequence, since the JVM may reorder fields within
+     * a class.
+     */
+    private static class ReaderSlot extends ReaderSlotFields {
+        protected long q1, q2, q3, q4, q5, q6, q7;
+
+        ReaderSlot(Thread _owner) {
+            super(_owner);
+        }
+    }
+
+    private static class ReaderSlotPadding {
+        protected long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private static class ReaderSlotFields extends ReaderSlotPadding {
+        volatile long epoch = NOT_READING;
+        // Weak, so the slot doesn't keep a finished thread around
+        final WeakReference<Thread> owner;
+
+        ReaderSlotFields(Thread _owner) {
+            owner = new WeakReference<>(_owner);
+        }
+    }
+}
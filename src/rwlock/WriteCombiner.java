@@ -0,0 +1,136 @@
+package rwlock;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * Flat combining for a ReadersWritersMonitor's writers: instead of
+ * each writer entering on its own, writers queue their updates and
+ * whichever of them gets *combiner* first (the combiner) enters as a
+ * writer once and applies every queued update, then wakes their
+ * submitters. One writer handoff and one trip of the resource's cache
+ * lines to the combiner's core then covers a whole batch of updates.
+ *
+ * A submitter that can't combine parks until its update is applied,
+ * or until it is at the head of the queue when the combiner leaves,
+ * in which case it tries to combine next.
+ */
+class WriteCombiner {
+    // Most updates one combiner applies before it checks whether
+    // its own is done, so it isn't kept combining forever
+    private static final int MAX_BATCH = 256;
+    // Times a submitter yields to the combiner before parking, since
+    // the combiner usually gets to its update in well under a quantum
+    private static final int YIELD_TRIES = 8;
+
+    private final ReadersWritersMonitor monitor;
+    private final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<>();
+    // Only ever held by a combiner: a submitter that sees it held
+    // parks, and relies on the combiner to unpark it afterwards
+    private final ReentrantLock combiner = new ReentrantLock();
+    // Read without combiner, so reading them never holds it
+    private final LongAdder batches = new LongAdder(),
+        updates = new LongAdder();
+
+    WriteCombiner(ReadersWritersMonitor _monitor) {
+        monitor = _monitor;
+    }
+
+    /*
+     * Apply *update* as a writer, returning once it has been applied
+     * (by us or by another writer). Whatever *update* throws is
+     * rethrown here.
+     */
+    void submit(Runnable update) {
+        Request request = new Request(update);
+        pending.add(request);
+        for(int tries = 0; !request.done; ++tries) {
+            if(combiner.tryLock()) {
+                try {
+                    combine();
+                }
+                finally {
+                    combiner.unlock();
+                }
+                // Whoever queued up while we were combining
+                // goes next
+                Request head = pending.peek();
+                if(head != null) {
+                    LockSupport.unpark(head.submitter);
+                }
+            }
+            // Anybody who saw combiner held and queued before it was
+            // released is unparked, done or at the head
+            else if(tries < YIELD_TRIES) {
+                Thread.yield();
+            }
+            else if(!request.done && combiner.isLocked()) {
+                LockSupport.park(this);
+            }
+        }
+        if(request.failure instanceof RuntimeException) {
+            throw (RuntimeException) request.failure;
+        }
+        if(request.failure instanceof Error) {
+            throw (Error) request.failure;
+        }
+    }
+
+    /*
+     * Number of exclusive sections combiners entered so far
+     */
+    long batches() {
+        return batches.sum();
+    }
+
+    /*
+     * Number of updates combiners applied so far
+     */
+    long updates() {
+        return updates.sum();
+    }
+
+    /*
+     * Enter as a writer and apply what is queued, holding combiner
+     */
+    private void combine() {
+        monitor.enterWriter();
+        int applied = 0;
+        try {
+            Request request;
+            while(applied < MAX_BATCH && (request = pending.poll()) != null) {
+                try {
+                    request.update.run();
+                }
+                catch(RuntimeException | Error e) {
+                    request.failure = e;
+                }
+                request.done = true;
+                ++applied;
+                if(request.submitter != Thread.currentThread()) {
+                    LockSupport.unpark(request.submitter);
+                }
+            }
+        }
+        finally {
+            monitor.exitWriter();
+        }
+        batches.increment();
+        updates.add(applied);
+    }
+
+    private static class Request {
+        final Runnable update;
+        final Thread submitter = Thread.currentThread();
+        // a RuntimeException or Error
+        Throwable failure = null;
+        // Set after failure, so failure is seen once done is
+        volatile boolean done = false;
+
+        Request(Runnable _update) {
+            update = _update;
+        }
+    }
+}
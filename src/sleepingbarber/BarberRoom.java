@@ -0,0 +1,142 @@
+package sleepingbarber;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+ * A waiting room with one or more barbers, the building block of
+ * MultiBarberMonitor
+ *
+ * It works like SleepingBarberMonitor, with every barber going
+ * through cut_hair() and every customer through get_haircut(). A
+ * barber takes a customer out of the room, starts a haircut and
+ * (after the haircut is taken) goes back for the next; a customer
+ * sits down, waits for a started haircut and takes it, releasing the
+ * barber who started it. With several barbers, each barber waits on
+ * their own condition, so a customer wakes exactly the barber they
+ * need: an asleep one when they sit down, or the one whose haircut
+ * they took.
+ */
+class BarberRoom {
+    private final int max_free_seats;
+    // written holding lock, read by dispatch without it
+    private volatile int num_free_seats;
+    private boolean closed = false;
+
+    // busy[b]: barber b started a haircut nobody has taken yet
+    private final boolean[] busy, asleep;
+    // Barbers asleep waiting for customers
+    private final ArrayDeque<Integer> sleeping = new ArrayDeque<>();
+    // Barbers whose haircut is waiting to be taken, in order
+    private final ArrayDeque<Integer> haircuts = new ArrayDeque<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition[] barber_ready;
+    private final Condition barber_cuts_hair = lock.newCondition();
+
+    BarberRoom(int nbarbers, int nchairs) {
+        max_free_seats = Math.max(1, nchairs);
+        num_free_seats = max_free_seats;  // start with empty shop
+        busy = new boolean[nbarbers];
+        asleep = new boolean[nbarbers];
+        barber_ready = new Condition[nbarbers];
+        for(int b = 0; b < nbarbers; ++b) {
+            barber_ready[b] = lock.newCondition();
+        }
+    }
+
+    /*
+     * Barber *barber* waits for their last haircut to be taken and
+     * for a customer, then starts the customer's haircut. Returns
+     * false, without a customer, once the shop is closed and empty.
+     */
+    boolean cut_hair(int barber) {
+        lock.lock();
+        try {
+            while(busy[barber] || num_free_seats >= max_free_seats) {
+                if(!busy[barber]) {
+                    if(closed) {
+                        return false;
+                    }
+                    if(!asleep[barber]) {
+                        asleep[barber] = true;
+                        sleeping.addLast(barber);
+                    }
+                }
+                try {
+                    barber_ready[barber].await();
+                }
+                catch(InterruptedException e) { }
+            }
+            // Take a customer from the waiting room and start
+            // their haircut
+            num_free_seats++;
+            busy[barber] = true;
+            haircuts.addLast(barber);
+            barber_cuts_hair.signal();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * A customer sits down if there is room (waking a barber if one
+     * is asleep) and waits for a haircut, returning false if there is
+     * no room or the shop is closed
+     */
+    boolean get_haircut() {
+        lock.lock();
+        try {
+            if(num_free_seats == 0 || closed) {
+                return false;
+            }
+            num_free_seats--;
+            Integer sleeper = sleeping.pollFirst();
+            if(sleeper != null) {
+                asleep[sleeper] = false;
+                barber_ready[sleeper].signal();
+            }
+            while(haircuts.isEmpty()) {
+                try {
+                    barber_cuts_hair.await();
+                } catch(InterruptedException e) { }
+            }
+            // We got our haircut, release its barber
+            int barber = haircuts.pollFirst();
+            busy[barber] = false;
+            barber_ready[barber].signal();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Turn away customers from now on, and let barbers
+     * go once the room is empty
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            for(Condition ready : barber_ready) {
+                ready.signal();
+            }
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+     * Free seats in the waiting room right now, without the lock
+     * (so possibly out of date)
+     */
+    int free_seats() {
+        return num_free_seats;
+    }
+}
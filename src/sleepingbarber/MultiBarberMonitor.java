@@ -0,0 +1,136 @@
+package sleepingbarber;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sleeping barber with M barbers
+ *
+ * Barber threads call cut_hair(b) for their barber number b in
+ * [0, M) over and over again, customer threads call get_haircut().
+ * The waiting room is either
+ * - SHARED: one room with all N chairs, which every barber serves, or
+ * - PER_BARBER: each barber has a room of their own (N chairs are
+ *   shared out between the rooms, at least one each), and an arriving
+ *   customer goes to the room with the most free seats. If that one
+ *   has filled up meanwhile they try the others, so a customer is only
+ *   turned away when every room is full. Each room has its own lock,
+ *   so barbers and customers of different rooms never contend.
+ *
+ * close_shop() turns customers away from then on and lets each barber's
+ * cut_hair() return false once there is nobody left for them.
+ */
+public class MultiBarberMonitor {
+    public enum WaitingRoom {SHARED, PER_BARBER}
+
+    private final WaitingRoom waiting_room;
+    private final int num_barbers;
+    // one room, or one per barber
+    private final BarberRoom[] rooms;
+    private final LongAdder accepted = new LongAdder(),
+        rejected = new LongAdder();
+
+    public MultiBarberMonitor(int nbarbers, int nchairs, WaitingRoom _waiting_room) {
+        if(nbarbers <= 0) {
+            throw new IllegalArgumentException("Need at least one barber");
+        }
+        num_barbers = nbarbers;
+        waiting_room = _waiting_room;
+        if(waiting_room == WaitingRoom.SHARED) {
+            rooms = new BarberRoom[] {new BarberRoom(nbarbers, nchairs)};
+        }
+        else {
+            rooms = new BarberRoom[nbarbers];
+            for(int b = 0; b < nbarbers; ++b) {
+                // share out the chairs, the first rooms get any left over
+                int chairs = nchairs / nbarbers + (b < nchairs % nbarbers ? 1 : 0);
+                rooms[b] = new BarberRoom(1, chairs);
+            }
+        }
+    }
+
+    /**
+     * Barber *barber* waits until they have a customer, then cuts
+     * their hair. Returns false (and cuts nobody's hair) once the
+     * shop is closed and the barber has nobody left to serve.
+     */
+    public boolean cut_hair(int barber) {
+        if(barber < 0 || barber >= num_barbers) {
+            throw new IllegalArgumentException("barber must be in range [0," + num_barbers + ")");
+        }
+        if(waiting_room == WaitingRoom.SHARED) {
+            return rooms[0].cut_hair(barber);
+        }
+        return rooms[barber].cut_hair(0);
+    }
+
+    /**
+     * A customer enters the shop, taking a seat in the waiting
+     * room (the emptiest room, if each barber has one) and waiting
+     * for their haircut. Returns false, without a haircut, if there
+     * is no room anywhere or the shop is closed.
+     */
+    public boolean get_haircut() {
+        int start = ThreadLocalRandom.current().nextInt(rooms.length);
+        int first = mostFreeSeats(start);
+        boolean got_haircut = rooms[first].get_haircut();
+        // It filled up since we looked, try the others
+        // before giving up
+        for(int i = 0; i < rooms.length && !got_haircut; ++i) {
+            int room = (start + i) % rooms.length;
+            if(room != first) {
+                got_haircut = rooms[room].get_haircut();
+            }
+        }
+        if(got_haircut) {
+            accepted.increment();
+        }
+        else {
+            rejected.increment();
+        }
+        return got_haircut;
+    }
+
+    /**
+     * Turn away customers from now on
+     */
+    public void close_shop() {
+        for(BarberRoom room : rooms) {
+            room.close();
+        }
+    }
+
+    /**
+     * Number of customers who got a haircut so far
+     */
+    public long get_num_accepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * Number of customers turned away so far
+     */
+    public long get_num_rejected() {
+        return rejected.sum();
+    }
+
+    /*
+     * Shortest-queue dispatch: the room with the most free seats
+     * (rooms can have different numbers of chairs, so fewest
+     * customers isn't the same thing), scanning from room *start*
+     * so ties spread out
+     */
+    private int mostFreeSeats(int start) {
+        int best = start;
+        int best_free = rooms[start].free_seats();
+        for(int i = 1; i < rooms.length; ++i) {
+            int room = (start + i) % rooms.length;
+            int free = rooms[room].free_seats();
+            if(free > best_free) {
+                best = room;
+                best_free = free;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,175 @@
+package sleepingbarber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measure haircut throughput and how many customers are turned
+ * away in a MultiBarberMonitor or SleepingBarberMonitor
+ */
+public class SleepingBarberBenchmark {
+    private static final long TIMEOUT_MICROS = 1000;
+
+    // Each customer thread arrives <arrivals per customer> times,
+    // leaving straight away when turned away, and barbers spin for
+    // <cut work> iterations (outside the monitor) per haircut.
+    // single runs SleepingBarberMonitor (so needs 1 barber), and
+    // single-timed does too with customers giving up after
+    // TIMEOUT_MICROS, and batch-K does too with the barber taking up
+    // to K customers at a time.
+    //
+    // <room: shared|per-barber|single|single-timed|batch-K> <num barbers> <num chairs> <num cust threads> <arrivals per customer> <cut work> <optional-debug level (default INFO)>
+    public static void main(final String[] args) {
+        // I hate the default logger setup from java:
+        // https://stackoverflow.com/questions/194765/how-do-i-get-java-logging-output-to-appear-on-a-single-line
+        System.setProperty("java.util.logging.SimpleFormatter.format",
+            "%1$tF %1$tT %4$s %2$s %5$s%6$s%n");
+        if(!(6 <= args.length && args.length <= 7)) {
+            throw new IllegalArgumentException("Invalid args.length");
+        }
+        String room = args[0];
+        int num_barbers = Integer.parseInt(args[1]);
+        int num_chairs = Integer.parseInt(args[2]);
+        int num_custs = Integer.parseInt(args[3]);
+        int num_arrivals = Integer.parseInt(args[4]);
+        int cut_work = Integer.parseInt(args[5]);
+        Level log_level = Level.INFO;
+        if(args.length == 7) {
+            log_level = Level.parse(args[6].toUpperCase());
+        }
+        Logger LOGGER = Logger.getLogger(Logger.GLOBAL_LOGGER_NAME);
+        LOGGER.setLevel(log_level);
+
+        String lower_room = room.toLowerCase();
+        if(lower_room.equals("single") || lower_room.equals("single-timed") || lower_room.startsWith("batch-")) {
+            if(num_barbers != 1) {
+                throw new IllegalArgumentException(room + " has exactly 1 barber");
+            }
+            int batch_size = lower_room.startsWith("batch-") ? Integer.parseInt(room.substring("batch-".length())) : 1;
+            runSingle(room, lower_room.equals("single-timed"), batch_size,
+                      num_chairs, num_custs, num_arrivals, cut_work, LOGGER);
+            return;
+        }
+        MultiBarberMonitor.WaitingRoom waiting_room;
+        if(room.equalsIgnoreCase("shared")) {
+            waiting_room = MultiBarberMonitor.WaitingRoom.SHARED;
+        }
+        else if(room.equalsIgnoreCase("per-barber")) {
+            waiting_room = MultiBarberMonitor.WaitingRoom.PER_BARBER;
+        }
+        else {
+            throw new IllegalArgumentException("Unknown room " + room);
+        }
+
+        MultiBarberMonitor monitor = new MultiBarberMonitor(num_barbers, num_chairs, waiting_room);
+        List<Thread> barbers = new ArrayList<>(), custs = new ArrayList<>();
+        for(int b = 0; b < num_barbers; ++b) {
+            int my_barber = b;
+            barbers.add(new Thread(() -> {
+                while(monitor.cut_hair(my_barber)) {
+                    cut(cut_work);
+                }
+            }));
+        }
+        for(int i = 0; i < num_custs; ++i) {
+            custs.add(new Thread(() -> {
+                for(int a = 0; a < num_arrivals; ++a) {
+                    monitor.get_haircut();
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        for(Thread t : barbers) {
+            t.start();
+        }
+        for(Thread t : custs) {
+            t.start();
+        }
+        join(custs);
+        long elapsed = System.nanoTime() - start;
+        monitor.close_shop();
+        join(barbers);
+
+        long accepted = monitor.get_num_accepted(),
+            rejected = monitor.get_num_rejected();
+        LOGGER.info(String.format("%s: %d barbers, %d chairs, %d customers: %.0f haircuts/sec, %.1f%% turned away",
+                                  room, num_barbers, num_chairs, num_custs,
+                                  accepted / (elapsed / 1e9),
+                                  100.0 * rejected / (accepted + rejected)));
+    }
+
+    /*
+     * One barber in a SleepingBarberMonitor, which has no closing
+     * time, so the barber is a daemon left cutting when we finish
+     */
+    private static void runSingle(String room, boolean timed, int batch_size, int num_chairs,
+                                  int num_custs, int num_arrivals, int cut_work, Logger LOGGER) {
+        SleepingBarberMonitor monitor = new SleepingBarberMonitor(num_chairs, batch_size);
+        Thread barber = new Thread(() -> {
+            while(true) {
+                int taken = monitor.cut_hair();
+                cut(taken * cut_work);
+            }
+        });
+        barber.setDaemon(true);
+        List<Thread> custs = new ArrayList<>();
+        for(int i = 0; i < num_custs; ++i) {
+            custs.add(new Thread(() -> {
+                for(int a = 0; a < num_arrivals; ++a) {
+                    if(timed) {
+                        monitor.tryGetHaircut(TIMEOUT_MICROS, TimeUnit.MICROSECONDS);
+                    }
+                    else {
+                        monitor.get_haircut();
+                    }
+                }
+            }));
+        }
+
+        long start = System.nanoTime();
+        barber.start();
+        for(Thread t : custs) {
+            t.start();
+        }
+        join(custs);
+        long elapsed = System.nanoTime() - start;
+
+        long accepted = monitor.get_num_accepted(),
+            rejected = monitor.get_num_rejected(),
+            timed_out = monitor.get_num_timed_out(),
+            arrivals = accepted + rejected + timed_out;
+        LOGGER.info(String.format("%s: 1 barber, %d chairs, %d customers: %.0f haircuts/sec, %.1f%% turned away, %.1f%% timed out",
+                                  room, num_chairs, num_custs,
+                                  accepted / (elapsed / 1e9),
+                                  100.0 * rejected / arrivals, 100.0 * timed_out / arrivals));
+    }
+
+    // Keeps cut() from being optimized away
+    private static volatile long sink;
+
+    /*
+     * Stand-in for cutting hair
+     */
+    private static void cut(int work) {
+        long x = 0;
+        for(int i = 0; i < work; ++i) {
+            x += i * 31L ^ x;
+        }
+        sink = x;
+    }
+
+    private static void join(List<Thread> threads) {
+        for(Thread t : threads) {
+            try {
+                t.join();
+            }
+            catch(InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package sleepingbarber;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -11,43 +13,77 @@ import java.util.concurrent.locks.ReentrantLock;
  * 
  * There must be N > 0 chairs in the waiting room
  * 
+ * num_free_seats is only written holding the lock, but is volatile
+ * so a customer arriving at a full shop can see so and leave without
+ * taking the lock (and getting in the barber's way).
+ *
+ * With a batch size K > 1, a barber who wakes up takes up to K
+ * waiting customers out of the waiting room at once and cuts all
+ * their hair before sleeping again, so a busy shop costs the barber
+ * one wakeup per K haircuts rather than one per haircut.
  */
 public class SleepingBarberMonitor {
-    private int max_free_seats, num_free_seats;
-    private boolean barber_cutting_hair;
+    private int max_free_seats;
+    private volatile int num_free_seats;
+    private final int batch_size;
+    // Haircuts the barber has started that customers
+    // have not taken yet
+    private int haircuts_ready;
+    private final LongAdder accepted = new LongAdder(),
+        rejected = new LongAdder(),
+        timed_out = new LongAdder();
 
     private ReentrantLock lock = new ReentrantLock();
     private Condition customer_ready = lock.newCondition(),
         barber_cuts_hair = lock.newCondition();
 
     public SleepingBarberMonitor(int nchairs) {
+        this(nchairs, 1);
+    }
+
+    /**
+     * The barber takes up to *batch_size* customers from the waiting
+     * room each time they get up
+     */
+    public SleepingBarberMonitor(int nchairs, int _batch_size) {
+        if(_batch_size <= 0) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
         max_free_seats = Math.max(1, nchairs);
         num_free_seats = max_free_seats;  // start with empty shop
-        barber_cutting_hair = false;
+        batch_size = _batch_size;
+        haircuts_ready = 0;
     }
 
     /**
      * If there are no customers, the barber sleeps in the
      * cutting chair until they are awoken. They then
-     * take a customer from the waiting room and put them
-     * in the cutting chair and become busy (cutting their hair).
+     * take customers (up to the batch size) from the waiting room
+     * and become busy (cutting their hair) until all of them have
+     * had their haircut.
+     *
+     * Returns the number of customers taken.
      */
-    public void cut_hair() {
+    public int cut_hair() {
         lock.lock();
         try {
             // While waiting room is empty or while I am busy
             // cutting hair, wait
-            while(num_free_seats >= max_free_seats || barber_cutting_hair) {
+            while(num_free_seats >= max_free_seats || haircuts_ready > 0) {
                 try{
                     customer_ready.await();
                 }
                 catch(InterruptedException e) { }
             }
-            // Now I have a customer, take them from waiting room and
-            // begin to give them a haircut
-            num_free_seats++;
-            barber_cutting_hair = true;
-            barber_cuts_hair.signal();
+            // Now I have customers, take them from waiting room and
+            // begin to give them haircuts
+            int taken = Math.min(batch_size, max_free_seats - num_free_seats);
+            num_free_seats += taken;
+            haircuts_ready = taken;
+            for(int i = 0; i < taken; ++i) {
+                barber_cuts_hair.signal();
+            }
+            return taken;
         }
         finally {
             lock.unlock();
@@ -64,35 +100,133 @@ public class SleepingBarberMonitor {
      * longer be busy
      */
     public boolean get_haircut() {
+        // Full shop, leave without the lock
+        if(num_free_seats == 0) {
+            rejected.increment();
+            return false;
+        }
         lock.lock();
         try {
             // If no waiting room leave
             if(num_free_seats == 0) {
+                rejected.increment();
                 return false;
             }
 
             // Now if there is room in the waiting room, wait
-            num_free_seats--;
-            // Let barber know to wake if they are asleep
-            if(!barber_cutting_hair) {
-                customer_ready.signal();
-            }
-            while(!barber_cutting_hair) {
+            sitDown();
+            while(haircuts_ready == 0) {
                 try {
                     barber_cuts_hair.await();
                 } catch(InterruptedException e) { }
             }
-            // We got our haircut, let's go
-            barber_cutting_hair = false;
-            // If there are more people who need their hair cut, we need to signal
-            // the barber
-            if(num_free_seats < max_free_seats) {
-                customer_ready.signal();
+            takeHaircut();
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Like get_haircut(), but gives up if the customer hasn't had
+     * their haircut within *timeout* (waiting for the shop's lock
+     * included), leaving their seat in the waiting room.
+     */
+    public boolean tryGetHaircut(long timeout, TimeUnit unit) {
+        long nanos_left = unit.toNanos(timeout);
+        long deadline = System.nanoTime() + nanos_left;
+        // Full shop, leave without the lock
+        if(num_free_seats == 0) {
+            rejected.increment();
+            return false;
+        }
+        boolean locked = false;
+        while(!locked) {
+            if(nanos_left <= 0) {
+                timed_out.increment();
+                return false;
+            }
+            try {
+                locked = lock.tryLock(nanos_left, TimeUnit.NANOSECONDS);
+            } catch(InterruptedException e) { }
+            nanos_left = deadline - System.nanoTime();
+        }
+        try {
+            // If no waiting room leave
+            if(num_free_seats == 0) {
+                rejected.increment();
+                return false;
+            }
+
+            sitDown();
+            while(haircuts_ready == 0) {
+                if(nanos_left <= 0) {
+                    // Give up our seat. Nobody is getting a haircut, so
+                    // the barber hasn't taken anybody out of the waiting
+                    // room we are still in
+                    num_free_seats++;
+                    timed_out.increment();
+                    return false;
+                }
+                try {
+                    nanos_left = barber_cuts_hair.awaitNanos(nanos_left);
+                } catch(InterruptedException e) {
+                    nanos_left = deadline - System.nanoTime();
+                }
             }
+            takeHaircut();
             return true;
         }
         finally {
             lock.unlock();
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Number of customers who got a haircut so far
+     */
+    public long get_num_accepted() {
+        return accepted.sum();
+    }
+
+    /**
+     * Number of customers who found the waiting room full so far
+     */
+    public long get_num_rejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Number of tryGetHaircut() customers who gave up waiting so far
+     */
+    public long get_num_timed_out() {
+        return timed_out.sum();
+    }
+
+    /*
+     * Take a seat in the waiting room, holding the lock
+     */
+    private void sitDown() {
+        num_free_seats--;
+        // Let barber know to wake if they are asleep
+        if(haircuts_ready == 0) {
+            customer_ready.signal();
+        }
+    }
+
+    /*
+     * The barber is cutting hair, take the haircut and leave,
+     * holding the lock
+     */
+    private void takeHaircut() {
+        // We got our haircut, let's go
+        haircuts_ready--;
+        accepted.increment();
+        // If we were the last of the barber's batch and there are more
+        // people who need their hair cut, we need to signal the barber
+        if(haircuts_ready == 0 && num_free_seats < max_free_seats) {
+            customer_ready.signal();
+        }
+    }
+}